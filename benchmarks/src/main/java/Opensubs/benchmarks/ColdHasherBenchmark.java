@@ -0,0 +1,93 @@
+package Opensubs.benchmarks;
+
+import Opensubs.OpenSubtitleHasher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The hash strategies of {@link HasherBenchmark} reading from disk. Every invocation is timed on
+ * its own, and the page cache is dropped before each one, so every hash reads its chunks cold.
+ * <p>
+ * Dropping the cache needs a writable {@code /proc/sys/vm/drop_caches} (root on Linux). Without
+ * it the trial fails rather than reporting cached reads as cold ones.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, batchSize = 1)
+@Measurement(iterations = 30, batchSize = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ColdHasherBenchmark {
+
+    private static final Path DROP_CACHES = Paths.get("/proc/sys/vm/drop_caches");
+
+    /**
+     * File size in bytes: under 128 KB, 1 GB and 50 GB.
+     */
+    @Param({"100000", "1073741824", "53687091200"})
+    public long size;
+
+    private Path dir;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        if (!Files.isWritable(DROP_CACHES)) {
+            throw new IllegalStateException(DROP_CACHES + " is not writable, reads would not be cold");
+        }
+        dir = Files.createTempDirectory("cold-hasher-benchmark");
+        file = HasherBenchmark.createVideo(dir.resolve("video.mkv"), size, new Random(42)).toFile();
+    }
+
+    @Setup(Level.Invocation)
+    public void dropPageCache() throws IOException {
+        Files.write(DROP_CACHES, "1".getBytes());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public String mappedFile() throws IOException {
+        return OpenSubtitleHasher.computeHash(file);
+    }
+
+    @Benchmark
+    public String inputStream() throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return OpenSubtitleHasher.computeHash(in, file.length());
+        }
+    }
+
+    @Benchmark
+    public long positionalRead() throws IOException {
+        return OpenSubtitleHasher.hash(file.toPath());
+    }
+}
@@ -0,0 +1,179 @@
+package Opensubs.benchmarks;
+
+import Opensubs.ClientSettings;
+import Opensubs.OpenSubtitle;
+import Opensubs.Pipeline;
+import Opensubs.SessionManager;
+import Opensubs.SubtitleFetcher;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Measures the whole fetch, from directory walk to written subtitle, against an in-process
+ * {@link StubServer}, so throughput can be compared between changes without touching the real
+ * API. It sets up the client the way {@code Main} does, runs one scan over a synthetic tree of
+ * sparse video files and prints the files per second and the p50 and p99 batch time of each
+ * pipeline stage.
+ * <p>
+ * This is a plain program rather than a JMH benchmark because a single run already takes
+ * seconds. Options, with their defaults:
+ * <pre>
+ * --dirs 20 --files 25 --file-size 67108864 --threads 2,4,2 --rate 0
+ * --latency 20 --error-rate 0 --results 3 --payload 40000 --runs 3
+ * </pre>
+ * {@code --latency} is per request in milliseconds, {@code --error-rate} the share of calls
+ * answered with {@code 503}, {@code --results} the subtitles per query and {@code --payload} the
+ * uncompressed size of a subtitle.
+ */
+public class EndToEndBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        int dirs = Integer.parseInt(options.getOrDefault("dirs", "20"));
+        int files = Integer.parseInt(options.getOrDefault("files", "25"));
+        long fileSize = Long.parseLong(options.getOrDefault("file-size", "67108864"));
+        String[] threadCounts = options.getOrDefault("threads", "2,4,2").split(",");
+        int[] threads = new int[3];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = Integer.parseInt(threadCounts[Math.min(i, threadCounts.length - 1)].trim());
+        }
+        double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        long latencyMillis = Long.parseLong(options.getOrDefault("latency", "20"));
+        double errorRate = Double.parseDouble(options.getOrDefault("error-rate", "0"));
+        int results = Integer.parseInt(options.getOrDefault("results", "3"));
+        int payload = Integer.parseInt(options.getOrDefault("payload", "40000"));
+        int runs = Integer.parseInt(options.getOrDefault("runs", "3"));
+
+        Path root = Files.createTempDirectory("e2e-bench");
+        try (StubServer server = new StubServer(latencyMillis, errorRate, results, payload)) {
+            System.out.printf("%d files in %d directories, %d ms latency, %.0f%% errors, threads %d,%d,%d%n",
+                    dirs * files, dirs, latencyMillis, errorRate * 100, threads[0], threads[1], threads[2]);
+            for (int run = 1; run <= runs; run++) {
+                createTree(root, dirs, files, fileSize);
+                runOnce(run, server, root, dirs * files, threads, rate);
+            }
+            System.out.println("Server calls: " + new TreeMap<>(server.getCalls()) + ", downloads: " + server.getDownloads()
+                    + ", 503s: " + server.getErrors());
+        } finally {
+            delete(root);
+        }
+    }
+
+    private static void runOnce(int run, StubServer server, Path root, int fileCount, int[] threads, double rate) throws Exception {
+        Map<String, List<Long>> stageNanos = new TreeMap<>();
+        Pipeline.StageListener listener = (stage, batchSize, nanos, failed) -> {
+            synchronized (stageNanos) {
+                stageNanos.computeIfAbsent(stage, s -> new ArrayList<>()).add(nanos);
+            }
+        };
+
+        ClientSettings settings = new ClientSettings();
+        settings.setServerUrl(server.getXmlRpcUrl());
+        settings.setTransport(ClientSettings.Transport.POOLED);
+        settings.setMaxConnections(2 * threads[1]);
+        settings.setGzipResponses(true);
+        settings.setRequestsPerSecond(rate);
+
+        PrintStream out = System.out;
+        long start = System.nanoTime();
+        // the fetcher reports every file, which would drown the results
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        OpenSubtitle openSubtitle = new OpenSubtitle(settings);
+        try {
+            SessionManager session = new SessionManager(openSubtitle, "", "", null);
+            session.open();
+            SubtitleFetcher fetcher = new SubtitleFetcher(openSubtitle);
+            fetcher.setThreads(threads[0], threads[1], threads[2]);
+            fetcher.setStageListener(listener);
+            fetcher.run(root, true);
+            session.close();
+        } finally {
+            openSubtitle.close();
+            System.setOut(out);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("Run %d: %.1f files/s (%d files in %d ms)%n", run, fileCount * 1e9 / elapsed, fileCount, elapsed / 1000000);
+        for (Map.Entry<String, List<Long>> stage : stageNanos.entrySet()) {
+            List<Long> nanos = stage.getValue();
+            Collections.sort(nanos);
+            System.out.printf("  %-12s %6d batches  p50 %8.2f ms  p99 %8.2f ms%n", stage.getKey(), nanos.size(),
+                    percentile(nanos, 0.50) / 1e6, percentile(nanos, 0.99) / 1e6);
+        }
+    }
+
+    /**
+     * Creates the video files, or removes the subtitles of an earlier run, so every run does the
+     * same work.
+     */
+    private static void createTree(Path root, int dirs, int files, long fileSize) throws IOException {
+        Random random = new Random(42);
+        byte[] chunk = new byte[64 * 1024];
+        for (int d = 0; d < dirs; d++) {
+            Path dir = Files.createDirectories(root.resolve(String.format("Show %03d", d)));
+            for (int f = 0; f < files; f++) {
+                Path video = dir.resolve(String.format("Show.%03d.S01E%02d.mkv", d, f + 1));
+                Files.deleteIfExists(dir.resolve(String.format("Show.%03d.S01E%02d.srt", d, f + 1)));
+                if (Files.exists(video)) {
+                    continue;
+                }
+                // sparse, with random data only where the movie hash reads
+                try (RandomAccessFile file = new RandomAccessFile(video.toFile(), "rw")) {
+                    file.setLength(fileSize);
+                    random.nextBytes(chunk);
+                    file.write(chunk, 0, (int) Math.min(chunk.length, fileSize));
+                    if (fileSize > chunk.length) {
+                        random.nextBytes(chunk);
+                        file.seek(Math.max(chunk.length, fileSize - chunk.length));
+                        file.write(chunk, 0, (int) Math.min(chunk.length, fileSize - chunk.length));
+                    }
+                }
+            }
+        }
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(p * sorted.size()) - 1));
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new TreeMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an option, got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static void delete(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
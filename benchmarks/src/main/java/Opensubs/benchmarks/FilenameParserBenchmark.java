@@ -0,0 +1,142 @@
+package Opensubs.benchmarks;
+
+import Opensubs.FilenameParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Parses a corpus of release names with {@link FilenameParser} and with the regex based query
+ * building that {@code Main} used before, which serves as the baseline. Each operation parses the
+ * whole corpus.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilenameParserBenchmark {
+
+    private static final Pattern LEGACY_PART = Pattern.compile("\\b[Pp][Aa][Rr][Tt] (\\d+)");
+
+    private List<String> releaseNames;
+    private FilenameParser parser;
+
+    @Setup(Level.Trial)
+    public void loadCorpus() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                FilenameParserBenchmark.class.getResourceAsStream("/release-names.txt"), StandardCharsets.UTF_8))) {
+            releaseNames = reader.lines().filter(line -> !line.isEmpty()).collect(Collectors.toList());
+        }
+        parser = new FilenameParser();
+
+        for (String filename : releaseNames) {
+            FilenameParser.ParsedName parsed = parser.parse(filename);
+            String legacy = legacyParse(filename);
+            if (!legacy.equals(parsed.toString()) && !knownDifference(legacy, parsed)) {
+                throw new IllegalStateException("Parsers disagree on `" + filename + "`: `" + legacy + "` vs `" + parsed + "`");
+            }
+        }
+    }
+
+    @Benchmark
+    public void filenameParser(Blackhole blackhole) {
+        for (String filename : releaseNames) {
+            blackhole.consume(parser.parse(filename));
+        }
+    }
+
+    @Benchmark
+    public void legacyRegex(Blackhole blackhole) {
+        for (String filename : releaseNames) {
+            blackhole.consume(legacyParse(filename));
+        }
+    }
+
+    /**
+     * {@link FilenameParser} always writes {@code part N} in lower case, the old code kept the case
+     * of the file name, e.g. {@code Part 2}. The server matches queries case-insensitively.
+     */
+    private static boolean knownDifference(String legacy, FilenameParser.ParsedName parsed) {
+        return LEGACY_PART.matcher(legacy).replaceAll("part $1").equals(parsed.toString());
+    }
+
+    /**
+     * The query building of {@code Main} before {@link FilenameParser}, copied unchanged apart
+     * from returning the same {@code query S<season>E<episode>} form as
+     * {@link FilenameParser.ParsedName#toString()}.
+     */
+    private static String legacyParse(String filename) {
+        String season = "";
+        String episode = "";
+        {
+            Pattern pattern = Pattern.compile("([sS]\\d+[xeE]\\d+)");
+            Matcher matcher = pattern.matcher(filename);
+            if (matcher.find()) {
+                String seasonEpisode = matcher.group(1).toLowerCase();
+                int indexOfE = Math.max(seasonEpisode.indexOf('e'), seasonEpisode.indexOf('x'));
+                season = seasonEpisode.substring(1, indexOfE);
+                episode = seasonEpisode.substring(indexOfE + 1);
+            }
+        }
+
+        String query = "";
+        String extension = filename.substring(filename.lastIndexOf('.'));
+        String name = filename.replace(extension, "");
+
+        // remove non-words
+        {
+            Pattern pattern = Pattern.compile("([^0-9\\W_]*)");
+            Matcher matcher = pattern.matcher(name);
+            int index = 0;
+            while (index < name.length()
+                    && matcher.find(index)) {
+                String group = matcher.group();
+                if (group.length() > 1) {
+                    query += group + " ";
+                }
+                index = matcher.end() + 1;
+            }
+            query = query.trim();
+        }
+
+        // find `part N`
+        {
+            Pattern pattern = Pattern.compile("([Pp][Aa][Rr][Tt] \\d+)");
+            Matcher matcher = pattern.matcher(filename);
+            if (matcher.find()) {
+                String group = matcher.group();
+                query += " " + group;
+            }
+        }
+
+        // remove special words
+        query = Arrays.stream(query.split(" "))
+                .filter(word -> !FilenameParser.DEFAULT_IGNORED_WORDS.contains(word.toLowerCase()))
+                .reduce("", (s, s2) -> s + " " + s2)
+                .trim();
+
+        return query + " S" + season + "E" + episode;
+    }
+}
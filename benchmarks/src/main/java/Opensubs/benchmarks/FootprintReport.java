@@ -0,0 +1,137 @@
+package Opensubs.benchmarks;
+
+import Opensubs.CompactSubtitleInfo;
+import Opensubs.SubtitleInfo;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Prints the retained heap of a batch of search results in each form they take: the maps the
+ * XML-RPC client returns, {@link SubtitleInfo} and {@link CompactSubtitleInfo}. The rows have
+ * every member a real SearchSubtitles result has, most numbers {@code "0"} or small, with a
+ * handful of languages and uploaders shared between them and one movie per query. Strings shared
+ * by several rows are counted once, as they would be in a cache.
+ * <p>
+ * Options, with their defaults: {@code --queries 200 --results 20}.
+ */
+public class FootprintReport {
+
+    private static final String[][] LANGUAGES = {
+            {"eng", "en", "English"}, {"spa", "es", "Spanish"}, {"fre", "fr", "French"},
+            {"ger", "de", "German"}, {"pob", "pb", "Portuguese (BR)"}, {"rum", "ro", "Romanian"}
+    };
+
+    public static void main(String[] args) {
+        int queries = 200;
+        int results = 20;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (args[i].equals("--queries")) {
+                queries = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--results")) {
+                results = Integer.parseInt(args[i + 1]);
+            }
+        }
+
+        List<Map<String, Object>> maps = rows(queries, results, new Random(42));
+        List<SubtitleInfo> infos = new ArrayList<>();
+        List<CompactSubtitleInfo> compacts = new ArrayList<>();
+        for (Map<String, Object> row : maps) {
+            CompactSubtitleInfo compact = CompactSubtitleInfo.from(row);
+            compacts.add(compact);
+            infos.add(compact.toSubtitleInfo());
+        }
+
+        System.out.printf("%d rows%n", maps.size());
+        print("Map", GraphLayout.parseInstance(maps), maps.size());
+        print("SubtitleInfo", GraphLayout.parseInstance(infos), maps.size());
+        print("CompactSubtitleInfo", GraphLayout.parseInstance(compacts), maps.size());
+        System.out.println();
+        System.out.println(GraphLayout.parseInstance(compacts).toFootprint());
+    }
+
+    private static void print(String form, GraphLayout layout, int rows) {
+        System.out.printf("%-20s %10d bytes %8d bytes/row%n", form, layout.totalSize(), layout.totalSize() / rows);
+    }
+
+    private static List<Map<String, Object>> rows(int queries, int results, Random random) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        String[] uploaders = new String[40];
+        for (int i = 0; i < uploaders.length; i++) {
+            uploaders[i] = i == 0 ? "" : "uploader" + i;
+        }
+        for (int q = 0; q < queries; q++) {
+            String movieHash = String.format("%016x", random.nextLong());
+            long movieByteSize = 100_000_000L + random.nextInt(Integer.MAX_VALUE);
+            int imdbId = 100_000 + random.nextInt(9_000_000);
+            boolean episode = random.nextBoolean();
+            String movieName = episode ? "\"Show " + q + "\" Episode " + random.nextInt(24) : "Movie " + q;
+            for (int r = 0; r < results; r++) {
+                String[] language = LANGUAGES[random.nextInt(LANGUAGES.length)];
+                int idSubtitleFile = 1_950_000_000 + random.nextInt(10_000_000);
+                int uploader = random.nextInt(uploaders.length);
+                Map<String, Object> row = new HashMap<>();
+                row.put("MatchedBy", "moviehash");
+                row.put("IDSubMovieFile", Integer.toString(random.nextInt(10_000_000)));
+                row.put("MovieHash", movieHash);
+                row.put("MovieByteSize", Long.toString(movieByteSize));
+                row.put("MovieTimeMS", "0");
+                row.put("MovieFrames", "0");
+                row.put("IDSubtitleFile", Integer.toString(idSubtitleFile));
+                row.put("SubFileName", "Release.Name." + q + "." + r + ".720p.BluRay.x264-GROUP.srt");
+                row.put("SubActualCD", "1");
+                row.put("SubSize", Integer.toString(20_000 + random.nextInt(80_000)));
+                row.put("SubHash", String.format("%016x%016x", random.nextLong(), random.nextLong()));
+                row.put("IDSubtitle", Integer.toString(3_000_000 + random.nextInt(6_000_000)));
+                row.put("UserID", uploader == 0 ? "0" : Integer.toString(1000 + uploader));
+                row.put("SubLanguageID", language[0]);
+                row.put("SubFormat", "srt");
+                row.put("SubSumCD", "1");
+                row.put("SubAuthorComment", "");
+                row.put("SubAddDate", String.format("20%02d-%02d-%02d %02d:%02d:%02d", 10 + random.nextInt(15),
+                        1 + random.nextInt(12), 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60),
+                        random.nextInt(60)));
+                row.put("SubBad", "0");
+                row.put("SubRating", random.nextInt(4) == 0 ? "10.0" : "0.0");
+                row.put("SubDownloadsCnt", Integer.toString(random.nextInt(200_000)));
+                row.put("MovieReleaseName", "Release.Name." + q + ".720p.BluRay.x264-GROUP");
+                row.put("MovieFPS", "23.976");
+                row.put("IDMovie", Integer.toString(random.nextInt(1_000_000)));
+                row.put("IDMovieImdb", Integer.toString(imdbId));
+                row.put("MovieName", movieName);
+                row.put("MovieNameEng", "");
+                row.put("MovieYear", Integer.toString(1990 + q % 35));
+                row.put("MovieImdbRating", "7.4");
+                row.put("SubFeatured", "0");
+                row.put("UserNickName", uploaders[uploader]);
+                row.put("SubTranslator", "");
+                row.put("ISO639", language[1]);
+                row.put("LanguageName", language[2]);
+                row.put("SubComments", "0");
+                row.put("SubHearingImpaired", "0");
+                row.put("UserRank", uploader == 0 ? "" : "trusted");
+                row.put("SeriesSeason", episode ? Integer.toString(1 + q % 10) : "0");
+                row.put("SeriesEpisode", episode ? Integer.toString(1 + r % 24) : "0");
+                row.put("MovieKind", episode ? "episode" : "movie");
+                row.put("SubHD", "1");
+                row.put("SeriesIMDBParent", "0");
+                row.put("SubEncoding", "UTF-8");
+                row.put("SubForeignPartsOnly", "0");
+                row.put("SubFromTrusted", "0");
+                row.put("SubDownloadLink",
+                        "https://dl.opensubtitles.org/en/download/src-api/vrf-19d00c5d/filead/" + idSubtitleFile + ".gz");
+                row.put("ZipDownloadLink",
+                        "https://dl.opensubtitles.org/en/download/src-api/vrf-f5470bfa/sid-x/sub/" + idSubtitleFile);
+                row.put("SubtitlesLink", "https://www.opensubtitles.org/en/subtitles/" + idSubtitleFile + "/sid-x/");
+                row.put("QueryNumber", "0");
+                row.put("Score", 12.5);
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+}
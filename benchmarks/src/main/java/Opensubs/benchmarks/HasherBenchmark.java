@@ -0,0 +1,139 @@
+package Opensubs.benchmarks;
+
+import Opensubs.HttpRangeReader;
+import Opensubs.OpenSubtitleHasher;
+import Opensubs.PositionalReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares the movie hash strategies of {@link OpenSubtitleHasher} with a warm page cache: every
+ * invocation hashes the same file, so its chunks stay cached. {@link ColdHasherBenchmark} measures
+ * reads from disk.
+ * <p>
+ * Files larger than a few megabytes are created sparse, with random data only in the head and
+ * tail chunks that the hash reads.
+ * <p>
+ * The {@code httpRange} variants hash the same files through a {@link StubServer} with HTTP
+ * {@code Range} requests, reading the tail one after the head or at the same time.
+ * <p>
+ * Run with {@code -prof gc} to get the allocation rate next to the throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HasherBenchmark {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * File size in bytes: under 128 KB, 1 GB and 50 GB.
+     */
+    @Param({"100000", "1073741824", "53687091200"})
+    public long size;
+
+    private Path dir;
+    private File file;
+    private URL url;
+    private StubServer server;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void createFiles() throws IOException {
+        dir = Files.createTempDirectory("hasher-benchmark");
+        file = createVideo(dir.resolve("video.mkv"), size, new Random(42)).toFile();
+        server = new StubServer(0, 0, 1, 100);
+        url = server.serveFile(file.toPath());
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Creates a file of {@code size} bytes, sparse apart from random head and tail chunks.
+     */
+    static Path createVideo(Path path, long size, Random random) throws IOException {
+        byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, size)];
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(size);
+            random.nextBytes(chunk);
+            file.write(chunk);
+            random.nextBytes(chunk);
+            file.seek(size - chunk.length);
+            file.write(chunk);
+        }
+        return path;
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        executor.shutdownNow();
+        server.close();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public String mappedFile() throws IOException {
+        return OpenSubtitleHasher.computeHash(file);
+    }
+
+    @Benchmark
+    public String inputStream() throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return OpenSubtitleHasher.computeHash(in, file.length());
+        }
+    }
+
+    @Benchmark
+    public long positionalRead() throws IOException {
+        return OpenSubtitleHasher.hash(file.toPath());
+    }
+
+    @Benchmark
+    public String positionalReadHex() throws IOException {
+        return OpenSubtitleHasher.toHex(OpenSubtitleHasher.hash(file.toPath()));
+    }
+
+    @Benchmark
+    public long httpRange() throws IOException {
+        try (PositionalReader reader = new HttpRangeReader(url)) {
+            return OpenSubtitleHasher.hash(reader);
+        }
+    }
+
+    @Benchmark
+    public long httpRangeParallel() throws IOException {
+        try (PositionalReader reader = new HttpRangeReader(url)) {
+            return OpenSubtitleHasher.hash(reader, executor);
+        }
+    }
+}
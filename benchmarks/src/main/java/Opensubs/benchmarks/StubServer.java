@@ -0,0 +1,375 @@
+package Opensubs.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An in-process stand-in for the OpenSubtitles XML-RPC API and its download server, so the client
+ * can be measured without a network. It answers LogIn, NoOperation, LogOut, SearchSubtitles and
+ * SearchMoviesOnIMDB, which finds every title with a made up id, at
+ * {@code /xml-rpc} and serves gzip compressed subtitles at {@code /download/<id>.gz}. Local files
+ * can be published with {@link #serveFile(Path)} for {@code HEAD} and {@code Range} requests.
+ * <p>
+ * Every request is delayed by the configured latency, and the configured share of XML-RPC calls
+ * is answered with a {@code 503} status. Each query of a search matches
+ * {@code resultsPerQuery} subtitles in every language it asks for, whose downloads are
+ * {@code subtitleBytes} long before compression. A query for a TV season without an episode
+ * matches that many subtitles for each of its {@value #EPISODES_PER_SEASON} episodes.
+ */
+public class StubServer implements Closeable {
+
+    public static final int EPISODES_PER_SEASON = 24;
+
+    private static final Pattern METHOD_NAME = Pattern.compile("<methodName>([^<]+)</methodName>");
+    private static final Pattern STRUCT = Pattern.compile("<struct>(.*?)</struct>", Pattern.DOTALL);
+    private static final Pattern MOVIE_HASH = Pattern.compile("<name>moviehash</name>\\s*<value>(?:<string>)?([^<]*)");
+    private static final Pattern PARAM = Pattern.compile("<param>\\s*<value>(?:<string>)?([^<]*)");
+    private static final Pattern IMDB_ID = Pattern.compile("<name>imdbid</name>\\s*<value>(?:<string>)?([^<]*)");
+    private static final Pattern QUERY = Pattern.compile("<name>query</name>\\s*<value>(?:<string>)?([^<]*)");
+    private static final Pattern SEASON = Pattern.compile("<name>season</name>\\s*<value>(?:<string>)?([^<]*)");
+    private static final Pattern EPISODE = Pattern.compile("<name>episode</name>\\s*<value>(?:<string>)?([^<]*)");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final Pattern LANGUAGE = Pattern.compile("<name>sublanguageid</name>\\s*<value>(?:<string>)?([^<]*)");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final double errorRate;
+    private final int resultsPerQuery;
+    private final byte[] subtitle;
+    private final Map<String, AtomicLong> calls = new ConcurrentHashMap<>();
+    private final AtomicLong downloads = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong nextToken = new AtomicLong();
+    private final Map<String, Path> files = new ConcurrentHashMap<>();
+    private final AtomicLong nextFile = new AtomicLong();
+    private final AtomicLong rangeRequests = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+
+    public StubServer(long latencyMillis, double errorRate, int resultsPerQuery, int subtitleBytes) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        this.resultsPerQuery = resultsPerQuery;
+        this.subtitle = gzip(subtitleText(subtitleBytes));
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/xml-rpc", this::handleXmlRpc);
+        server.createContext("/download/", this::handleDownload);
+        server.createContext("/files/", this::handleFile);
+        server.start();
+    }
+
+    public String getXmlRpcUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/xml-rpc";
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return how often each XML-RPC method was called
+     */
+    public Map<String, AtomicLong> getCalls() {
+        return calls;
+    }
+
+    public long getDownloads() {
+        return downloads.get();
+    }
+
+    /**
+     * @return how many calls were answered with a 503 status
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * Publishes a local file.
+     *
+     * @return the URL it is served at
+     */
+    public URL serveFile(Path file) throws IOException {
+        String name = Long.toString(nextFile.getAndIncrement());
+        files.put(name, file);
+        return new URL(getBaseUrl() + "/files/" + name);
+    }
+
+    /**
+     * @return how many {@code GET} requests for a range of a served file were answered
+     */
+    public long getRangeRequests() {
+        return rangeRequests.get();
+    }
+
+    /**
+     * @return how many bytes of served files were sent
+     */
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handleXmlRpc(HttpExchange exchange) throws IOException {
+        try {
+            delay();
+            InputStream body = exchange.getRequestBody();
+            if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                body = new GZIPInputStream(body);
+            }
+            String request = new String(readAll(body), StandardCharsets.UTF_8);
+            Matcher methodName = METHOD_NAME.matcher(request);
+            String method = methodName.find() ? methodName.group(1) : "";
+            calls.computeIfAbsent(method, m -> new AtomicLong()).incrementAndGet();
+
+            String response;
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                errors.incrementAndGet();
+                response = struct(member("status", string("503 Service Unavailable")));
+            } else {
+                switch (method) {
+                    case "LogIn":
+                        response = struct(member("status", string("200 OK")), member("token", string("stub" + nextToken.incrementAndGet())));
+                        break;
+                    case "SearchSubtitles":
+                        response = search(request);
+                        break;
+                    case "SearchMoviesOnIMDB":
+                        response = searchImdb(request);
+                        break;
+                    case "NoOperation":
+                    case "LogOut":
+                        response = struct(member("status", string("200 OK")));
+                        break;
+                    default:
+                        response = struct(member("status", string("405 Method not allowed")));
+                        break;
+                }
+            }
+            byte[] bytes = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><methodResponse><params><param><value>"
+                    + response + "</value></param></params></methodResponse>").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/xml");
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                bytes = gzip(bytes);
+            }
+            send(exchange, bytes);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String search(String request) {
+        StringBuilder data = new StringBuilder();
+        Matcher structs = STRUCT.matcher(request);
+        while (structs.find()) {
+            String query = structs.group(1);
+            Matcher hash = MOVIE_HASH.matcher(query);
+            String movieHash = hash.find() ? hash.group(1) : null;
+            if (movieHash == null && !QUERY.matcher(query).find() && !IMDB_ID.matcher(query).find()) {
+                // the options
+                continue;
+            }
+            int season = number(SEASON.matcher(query));
+            int episode = number(EPISODE.matcher(query));
+            int firstEpisode = season > 0 && episode == 0 ? 1 : episode;
+            int lastEpisode = season > 0 && episode == 0 ? EPISODES_PER_SEASON : episode;
+            Matcher language = LANGUAGE.matcher(query);
+            for (String subLanguageId : (language.find() ? language.group(1) : "eng").split(",")) {
+                for (int e = firstEpisode; e <= lastEpisode; e++) {
+                    appendResults(data, movieHash, subLanguageId, season, e);
+                }
+            }
+        }
+        String dataValue = data.length() > 0 ? "<array><data>" + data + "</data></array>" : "<boolean>0</boolean>";
+        return struct(member("status", string("200 OK")), member("data", dataValue), member("seconds", "<double>0.01</double>"));
+    }
+
+    private String searchImdb(String request) {
+        Matcher params = PARAM.matcher(request);
+        String title = params.find() && params.find() ? params.group(1) : "";
+        String id = String.format("%07d", (title.toLowerCase().hashCode() & Integer.MAX_VALUE) % 10000000);
+        String data = "<array><data><value>" + struct(member("id", string(id)), member("title", string(title + " (2016)")))
+                + "</value></data></array>";
+        return struct(member("status", string("200 OK")), member("data", data), member("seconds", "<double>0.01</double>"));
+    }
+
+    private static int number(Matcher matcher) {
+        try {
+            return matcher.find() ? Integer.parseInt(matcher.group(1).trim()) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void appendResults(StringBuilder data, String movieHash, String subLanguageId, int season, int episode) {
+        for (int i = 0; i < resultsPerQuery; i++) {
+            long id = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+            String subFileName = season > 0 ? String.format("Stub.Show.S%02dE%02d.srt", season, episode) : "stub-" + id + ".srt";
+            data.append("<value>").append(struct(
+                    member("MatchedBy", string(movieHash != null ? "moviehash" : "fulltext")),
+                    member("MovieHash", string(movieHash != null ? movieHash : "0")),
+                    member("IDSubtitleFile", string(Long.toString(id))),
+                    member("SubFileName", string(subFileName)),
+                    member("SeriesSeason", string(Integer.toString(season))),
+                    member("SeriesEpisode", string(Integer.toString(episode))),
+                    member("SubLanguageID", string(subLanguageId)),
+                    member("SubFormat", string("srt")),
+                    member("SubDownloadsCnt", string(Integer.toString(1000 - i))),
+                    member("SubRating", string("8.0")),
+                    member("MovieName", string("Stub Movie")),
+                    member("MovieYear", string("2016")),
+                    member("ISO639", string(subLanguageId.substring(0, Math.min(2, subLanguageId.length())))),
+                    member("LanguageName", string(subLanguageId)),
+                    member("SubDownloadLink", string(getBaseUrl() + "/download/" + id + ".gz")),
+                    member("QueryParameters", struct(member("moviehash", string(movieHash != null ? movieHash : ""))))
+            )).append("</value>");
+        }
+    }
+
+    private void handleDownload(HttpExchange exchange) throws IOException {
+        try {
+            delay();
+            downloads.incrementAndGet();
+            exchange.getResponseHeaders().set("Content-Type", "application/x-gzip");
+            send(exchange, subtitle);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleFile(HttpExchange exchange) throws IOException {
+        try {
+            delay();
+            Path file = files.get(exchange.getRequestURI().getPath().substring("/files/".length()));
+            if (file == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            long size = Files.size(file);
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", Long.toString(size));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            Matcher range = RANGE.matcher(String.valueOf(exchange.getRequestHeaders().getFirst("Range")));
+            if (!range.matches()) {
+                exchange.sendResponseHeaders(200, size);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    bytesServed.addAndGet(Files.copy(file, out));
+                }
+                return;
+            }
+            long first = Long.parseLong(range.group(1));
+            long last = range.group(2).isEmpty() ? size - 1 : Math.min(Long.parseLong(range.group(2)), size - 1);
+            if (first > last) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            rangeRequests.incrementAndGet();
+            ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(last - first + 1, Integer.MAX_VALUE - 8));
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                while (bytes.hasRemaining() && channel.read(bytes, first + bytes.position()) >= 0) ;
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + (first + bytes.position() - 1) + "/" + size);
+            exchange.sendResponseHeaders(206, bytes.position());
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes.array(), 0, bytes.position());
+            }
+            bytesServed.addAndGet(bytes.position());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void delay() {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void send(HttpExchange exchange, byte[] bytes) throws IOException {
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String struct(String... members) {
+        return "<struct>" + String.join("", Arrays.asList(members)) + "</struct>";
+    }
+
+    private static String member(String name, String value) {
+        return "<member><name>" + name + "</name><value>" + value + "</value></member>";
+    }
+
+    private static String string(String value) {
+        return "<string>" + value.replace("&", "&amp;").replace("<", "&lt;") + "</string>";
+    }
+
+    private static byte[] subtitleText(int bytes) {
+        StringBuilder text = new StringBuilder(bytes + 64);
+        for (int cue = 1; text.length() < bytes; cue++) {
+            text.append(cue).append("\n00:00:01,000 --> 00:00:02,000\nLine of dialogue number ").append(cue).append("\n\n");
+        }
+        text.setLength(bytes);
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,123 @@
+package Opensubs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stops calls to the API while it appears to be down. After {@code failureThreshold} calls in a
+ * row failed with a connection problem, a timeout or a server error, the breaker opens: callers
+ * wait in {@link #acquire()} instead of failing one after another. Once the cool down is over a
+ * single probe call is let through. If it succeeds the breaker closes and everyone continues,
+ * otherwise it opens again for twice as long, up to five minutes.
+ * <p>
+ * A waiting pipeline is paused rather than aborted, so a run resumes by itself when the API comes
+ * back. Callers wait on a {@link ReentrantLock} condition, which does not pin the carrier of a
+ * virtual thread the way an object monitor does.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        /**
+         * A probe call is deciding whether to close the breaker again.
+         */
+        HALF_OPEN
+    }
+
+    private static final long BASE_COOL_DOWN_MILLIS = 5000;
+    private static final long MAX_COOL_DOWN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final int failureThreshold;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition stateChanged = lock.newCondition();
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private int openings;
+    private long openUntil;
+    private long opened;
+
+    /**
+     * @param failureThreshold consecutive failures that open the breaker
+     */
+    public CircuitBreaker(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * Waits until a call may be made. While half open only the probe gets through.
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (state == State.CLOSED) {
+                    return;
+                }
+                long now = System.nanoTime();
+                if (state == State.OPEN && now - openUntil >= 0) {
+                    state = State.HALF_OPEN;
+                    return;
+                }
+                long waitNanos = state == State.OPEN ? openUntil - now : TimeUnit.SECONDS.toNanos(1);
+                stateChanged.awaitNanos(Math.max(waitNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void succeeded() {
+        lock.lock();
+        try {
+            consecutiveFailures = 0;
+            if (state != State.CLOSED) {
+                state = State.CLOSED;
+                openings = 0;
+                stateChanged.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void failed() {
+        lock.lock();
+        try {
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                long coolDown = Math.min(MAX_COOL_DOWN_MILLIS, BASE_COOL_DOWN_MILLIS << Math.min(openings, 16));
+                openings++;
+                opened++;
+                state = State.OPEN;
+                openUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(coolDown);
+                System.err.println("The API looks unavailable, pausing for " + coolDown / 1000 + " s");
+                stateChanged.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public State getState() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how often the breaker opened
+     */
+    public long getOpened() {
+        lock.lock();
+        try {
+            return opened;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
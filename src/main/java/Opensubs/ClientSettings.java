@@ -0,0 +1,213 @@
+package Opensubs;
+
+import java.util.concurrent.Executor;
+
+/**
+ * How {@link OpenSubtitle} talks to the XML-RPC server. The defaults use the JDK
+ * {@code HttpURLConnection} transport without timeouts or compression, and pace calls to the
+ * API's limit of 40 requests per 10 seconds.
+ */
+public class ClientSettings {
+
+    public enum Transport {
+        /**
+         * {@code HttpURLConnection}, which leaves connection reuse to the JDK.
+         */
+        DEFAULT,
+        /**
+         * Commons HttpClient with a pool of persistent connections that are shared by all threads.
+         */
+        POOLED
+    }
+
+    private String serverUrl = OpenSubtitle.OPEN_SUBTITLES_SERVER;
+    private Transport transport = Transport.DEFAULT;
+    private int maxConnections = 4;
+    private int connectTimeoutMillis;
+    private int readTimeoutMillis;
+    private long callTimeoutMillis;
+    private int maxRetries = 2;
+    private boolean hedgeRequests;
+    private int circuitBreakerFailures = 5;
+    private boolean gzipRequests;
+    private boolean gzipResponses;
+    private double requestsPerSecond = 4;
+    private int burst = 10;
+    private Executor executor;
+    private Metrics metrics;
+
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    /**
+     * @param serverUrl the XML-RPC endpoint, such as a mirror or a local stub for testing
+     */
+    public void setServerUrl(String serverUrl) {
+        this.serverUrl = serverUrl;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @param maxConnections the size of the {@link Transport#POOLED} connection pool
+     */
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        }
+        this.maxConnections = maxConnections;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * @param connectTimeoutMillis 0 waits forever
+     */
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * @param readTimeoutMillis 0 waits forever
+     */
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public long getCallTimeoutMillis() {
+        return callTimeoutMillis;
+    }
+
+    /**
+     * @param callTimeoutMillis the deadline of a single API request or subtitle download, however
+     *                          slowly the data trickles in, not counting the wait for the request
+     *                          quota; 0 leaves it to the read timeout
+     */
+    public void setCallTimeoutMillis(long callTimeoutMillis) {
+        this.callTimeoutMillis = callTimeoutMillis;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param maxRetries how often searches and downloads are retried with backoff after a
+     *                   connection problem, a timeout or a server error
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public boolean isHedgeRequests() {
+        return hedgeRequests;
+    }
+
+    /**
+     * Sends a second copy of a search that takes longer than 95% of the earlier ones and uses
+     * whichever answer comes first. This trims the slowest calls at the cost of a few extra
+     * requests.
+     */
+    public void setHedgeRequests(boolean hedgeRequests) {
+        this.hedgeRequests = hedgeRequests;
+    }
+
+    public int getCircuitBreakerFailures() {
+        return circuitBreakerFailures;
+    }
+
+    /**
+     * @param circuitBreakerFailures failed calls in a row after which the {@link CircuitBreaker}
+     *                               pauses all calls, 0 disables it
+     */
+    public void setCircuitBreakerFailures(int circuitBreakerFailures) {
+        this.circuitBreakerFailures = circuitBreakerFailures;
+    }
+
+    public boolean isGzipRequests() {
+        return gzipRequests;
+    }
+
+    /**
+     * Compresses request bodies with the {@link Transport#POOLED} transport, the default transport
+     * ignores this. Only enable it for servers that accept {@code Content-Encoding: gzip}.
+     */
+    public void setGzipRequests(boolean gzipRequests) {
+        this.gzipRequests = gzipRequests;
+    }
+
+    public boolean isGzipResponses() {
+        return gzipResponses;
+    }
+
+    /**
+     * Asks the server for gzip compressed responses.
+     */
+    public void setGzipResponses(boolean gzipResponses) {
+        this.gzipResponses = gzipResponses;
+    }
+
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    /**
+     * @param requestsPerSecond the rate the {@link RequestScheduler} aims for, 0 disables it
+     */
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * @param burst how many calls may be made at once after a quiet period
+     */
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param executor runs the blocking work behind the async methods of {@link OpenSubtitle}, or
+     *                 {@code null} for virtual threads where the JDK has them and a small pool of
+     *                 daemon threads otherwise
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics where the client records its timings and counts, or {@code null} for metrics
+     *                of its own, see {@link OpenSubtitle#getMetrics()}
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+}
@@ -0,0 +1,415 @@
+package Opensubs;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A memory-friendly, immutable form of {@link SubtitleInfo} for holding many search results at
+ * once, such as in a {@link SearchCache}. Numeric fields are stored as primitives, and strings that
+ * repeat across results, like language, format and movie name, are interned so equal values share
+ * one instance. Per-file strings such as hashes, file names and links are stored as they are.
+ * <p>
+ * {@link #toSubtitleInfo()} gives back the exact strings the server sent. A numeric value that
+ * would not print the same after parsing, for example {@code "07"}, is kept as a string in an
+ * array that is only allocated for such a row.
+ */
+public final class CompactSubtitleInfo implements Serializable {
+    private static final long serialVersionUID = 3L;
+
+    private static final int NO_INT = Integer.MIN_VALUE;
+    private static final long NO_LONG = Long.MIN_VALUE;
+
+    /**
+     * Slots of the {@code raw} array, one for every numeric field.
+     */
+    private enum Raw {
+        IDSubMovieFile, MovieByteSize, MovieTimeMS, MovieFrames, IDSubtitleFile, SubActualCD, SubSize, IDSubtitle,
+        UserID, SubSumCD, SubDownloadsCnt, SubBad, SubRating, IDMovie, IDMovieImdb, MovieYear, MovieImdbRating,
+        SeriesSeason, SeriesEpisode
+    }
+
+    private final String movieHash;
+    private final String subFileName;
+    private final String subHash;
+    private final String subLanguageID;
+    private final String subFormat;
+    private final String subAddDate;
+    private final String movieName;
+    private final String movieNameEng;
+    private final String userNickName;
+    private final String iso639;
+    private final String languageName;
+    private final String subDownloadLink;
+    private final long idSubMovieFile;
+    private final long movieByteSize;
+    private final long movieTimeMS;
+    private final long movieFrames;
+    private final long idSubtitleFile;
+    private final long subSize;
+    private final long idSubtitle;
+    private final long userID;
+    private final long idMovie;
+    private final long idMovieImdb;
+    private final int subActualCD;
+    private final int subSumCD;
+    private final int subDownloadsCnt;
+    private final int subBad;
+    private final int movieYear;
+    private final int seriesSeason;
+    private final int seriesEpisode;
+    private final float subRating;
+    private final float movieImdbRating;
+    private final String[] raw;
+
+    private CompactSubtitleInfo(Function<String, String> info, String movieImdbRating) {
+        String[] raw = new String[Raw.values().length];
+
+        this.movieHash = info.apply("MovieHash");
+        this.subFileName = info.apply("SubFileName");
+        this.subHash = info.apply("SubHash");
+        this.subLanguageID = intern(info.apply("SubLanguageID"));
+        this.subFormat = intern(info.apply("SubFormat"));
+        this.subAddDate = info.apply("SubAddDate");
+        this.movieName = intern(info.apply("MovieName"));
+        this.movieNameEng = intern(info.apply("MovieNameEng"));
+        this.userNickName = intern(info.apply("UserNickName"));
+        this.iso639 = intern(info.apply("ISO639"));
+        this.languageName = intern(info.apply("LanguageName"));
+        this.subDownloadLink = info.apply("SubDownloadLink");
+
+        this.idSubMovieFile = parseLong(info, Raw.IDSubMovieFile, raw);
+        this.movieByteSize = parseLong(info, Raw.MovieByteSize, raw);
+        this.movieTimeMS = parseLong(info, Raw.MovieTimeMS, raw);
+        this.movieFrames = parseLong(info, Raw.MovieFrames, raw);
+        this.idSubtitleFile = parseLong(info, Raw.IDSubtitleFile, raw);
+        this.subSize = parseLong(info, Raw.SubSize, raw);
+        this.idSubtitle = parseLong(info, Raw.IDSubtitle, raw);
+        this.userID = parseLong(info, Raw.UserID, raw);
+        this.idMovie = parseLong(info, Raw.IDMovie, raw);
+        this.idMovieImdb = parseLong(info, Raw.IDMovieImdb, raw);
+        this.subActualCD = parseInt(info, Raw.SubActualCD, raw);
+        this.subSumCD = parseInt(info, Raw.SubSumCD, raw);
+        this.subDownloadsCnt = parseInt(info, Raw.SubDownloadsCnt, raw);
+        this.subBad = parseInt(info, Raw.SubBad, raw);
+        this.movieYear = parseInt(info, Raw.MovieYear, raw);
+        this.seriesSeason = parseInt(info, Raw.SeriesSeason, raw);
+        this.seriesEpisode = parseInt(info, Raw.SeriesEpisode, raw);
+        this.subRating = parseFloat(info.apply("SubRating"), Raw.SubRating, raw);
+        this.movieImdbRating = parseFloat(movieImdbRating, Raw.MovieImdbRating, raw);
+
+        boolean hasRaw = false;
+        for (String value : raw) {
+            hasRaw |= value != null;
+        }
+        this.raw = hasRaw ? raw : null;
+    }
+
+    /**
+     * Builds the compact form of one entry of a SearchSubtitles {@code data} array.
+     */
+    public static CompactSubtitleInfo from(Map<?, ?> info) {
+        return from(name -> (String) info.get(name));
+    }
+
+    /**
+     * Builds the compact form from a lookup of the raw field values by their API names.
+     */
+    static CompactSubtitleInfo from(Function<String, String> info) {
+        return new CompactSubtitleInfo(info, info.apply("MovieImdbRating"));
+    }
+
+    public static CompactSubtitleInfo from(SubtitleInfo info) {
+        String movieImdbRating = info.MovieImdbRating;
+        // SubtitleInfo prefixes the rating with "tt"
+        if (movieImdbRating != null && movieImdbRating.startsWith("tt")) {
+            movieImdbRating = movieImdbRating.equals("ttnull") ? null : movieImdbRating.substring(2);
+        }
+        Map<String, String> fields = info.toMap();
+        return new CompactSubtitleInfo(fields::get, movieImdbRating);
+    }
+
+    public SubtitleInfo toSubtitleInfo() {
+        SubtitleInfo info = new SubtitleInfo();
+        info.IDSubMovieFile = format(idSubMovieFile, Raw.IDSubMovieFile);
+        info.MovieHash = movieHash;
+        info.MovieByteSize = format(movieByteSize, Raw.MovieByteSize);
+        info.MovieTimeMS = format(movieTimeMS, Raw.MovieTimeMS);
+        info.MovieFrames = format(movieFrames, Raw.MovieFrames);
+        info.IDSubtitleFile = format(idSubtitleFile, Raw.IDSubtitleFile);
+        info.SubFileName = subFileName;
+        info.SubActualCD = format(subActualCD, Raw.SubActualCD);
+        info.SubSize = format(subSize, Raw.SubSize);
+        info.SubHash = subHash;
+        info.IDSubtitle = format(idSubtitle, Raw.IDSubtitle);
+        info.UserID = format(userID, Raw.UserID);
+        info.SubLanguageID = subLanguageID;
+        info.SubFormat = subFormat;
+        info.SubSumCD = format(subSumCD, Raw.SubSumCD);
+        info.SubAddDate = subAddDate;
+        info.SubDownloadsCnt = format(subDownloadsCnt, Raw.SubDownloadsCnt);
+        info.SubBad = format(subBad, Raw.SubBad);
+        info.SubRating = format(subRating, Raw.SubRating);
+        info.IDMovie = format(idMovie, Raw.IDMovie);
+        info.IDMovieImdb = format(idMovieImdb, Raw.IDMovieImdb);
+        info.MovieName = movieName;
+        info.MovieNameEng = movieNameEng;
+        info.MovieYear = format(movieYear, Raw.MovieYear);
+        info.MovieImdbRating = "tt" + format(movieImdbRating, Raw.MovieImdbRating);
+        info.UserNickName = userNickName;
+        info.ISO639 = iso639;
+        info.LanguageName = languageName;
+        info.SubDownloadLink = subDownloadLink;
+        info.SeriesSeason = format(seriesSeason, Raw.SeriesSeason);
+        info.SeriesEpisode = format(seriesEpisode, Raw.SeriesEpisode);
+        return info;
+    }
+
+    /**
+     * Interns the pooled strings again after deserialization.
+     */
+    private Object readResolve() {
+        return from(toSubtitleInfo());
+    }
+
+    public String getMovieHash() {
+        return movieHash;
+    }
+
+    public String getSubFileName() {
+        return subFileName;
+    }
+
+    public String getSubLanguageID() {
+        return subLanguageID;
+    }
+
+    public String getSubFormat() {
+        return subFormat;
+    }
+
+    public String getMovieName() {
+        return movieName;
+    }
+
+    public String getISO639() {
+        return iso639;
+    }
+
+    public String getLanguageName() {
+        return languageName;
+    }
+
+    public String getSubDownloadLink() {
+        return subDownloadLink;
+    }
+
+    /**
+     * @return the size in bytes, or -1 when unknown
+     */
+    public long getMovieByteSize() {
+        return value(movieByteSize, Raw.MovieByteSize);
+    }
+
+    /**
+     * @return the file id, or -1 when unknown
+     */
+    public long getIDSubtitleFile() {
+        return value(idSubtitleFile, Raw.IDSubtitleFile);
+    }
+
+    /**
+     * @return the size in bytes, or -1 when unknown
+     */
+    public long getSubSize() {
+        return value(subSize, Raw.SubSize);
+    }
+
+    /**
+     * @return the IMDb id without the {@code tt} prefix, or -1 when unknown
+     */
+    public long getIDMovieImdb() {
+        return value(idMovieImdb, Raw.IDMovieImdb);
+    }
+
+    /**
+     * @return the download count, or -1 when unknown
+     */
+    public int getSubDownloadsCnt() {
+        return (int) value(subDownloadsCnt != NO_INT ? subDownloadsCnt : NO_LONG, Raw.SubDownloadsCnt);
+    }
+
+    /**
+     * @return the year, or -1 when unknown
+     */
+    public int getMovieYear() {
+        return (int) value(movieYear != NO_INT ? movieYear : NO_LONG, Raw.MovieYear);
+    }
+
+    /**
+     * @return the season of a TV episode, or -1 when unknown
+     */
+    public int getSeriesSeason() {
+        return (int) value(seriesSeason != NO_INT ? seriesSeason : NO_LONG, Raw.SeriesSeason);
+    }
+
+    /**
+     * @return the episode number of a TV episode, or -1 when unknown
+     */
+    public int getSeriesEpisode() {
+        return (int) value(seriesEpisode != NO_INT ? seriesEpisode : NO_LONG, Raw.SeriesEpisode);
+    }
+
+    /**
+     * @return the rating, or {@code NaN} when unknown
+     */
+    public float getSubRating() {
+        return value(subRating, Raw.SubRating);
+    }
+
+    /**
+     * @return the rating, or {@code NaN} when unknown
+     */
+    public float getMovieImdbRating() {
+        return value(movieImdbRating, Raw.MovieImdbRating);
+    }
+
+    public String getIDSubMovieFile() {
+        return format(idSubMovieFile, Raw.IDSubMovieFile);
+    }
+
+    public String getMovieTimeMS() {
+        return format(movieTimeMS, Raw.MovieTimeMS);
+    }
+
+    public String getMovieFrames() {
+        return format(movieFrames, Raw.MovieFrames);
+    }
+
+    public String getSubActualCD() {
+        return format(subActualCD, Raw.SubActualCD);
+    }
+
+    public String getSubHash() {
+        return subHash;
+    }
+
+    public String getIDSubtitle() {
+        return format(idSubtitle, Raw.IDSubtitle);
+    }
+
+    public String getUserID() {
+        return format(userID, Raw.UserID);
+    }
+
+    public String getSubSumCD() {
+        return format(subSumCD, Raw.SubSumCD);
+    }
+
+    public String getSubAddDate() {
+        return subAddDate;
+    }
+
+    public String getSubBad() {
+        return format(subBad, Raw.SubBad);
+    }
+
+    public String getIDMovie() {
+        return format(idMovie, Raw.IDMovie);
+    }
+
+    public String getMovieNameEng() {
+        return movieNameEng;
+    }
+
+    public String getUserNickName() {
+        return userNickName;
+    }
+
+    private String raw(Raw field) {
+        return raw != null ? raw[field.ordinal()] : null;
+    }
+
+    /**
+     * Returns a numeric field, parsing the raw string when it was not stored as a number.
+     */
+    private long value(long value, Raw field) {
+        if (value != NO_LONG) {
+            return value;
+        }
+        try {
+            return raw(field) != null ? Long.parseLong(raw(field).trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private float value(float value, Raw field) {
+        if (!Float.isNaN(value)) {
+            return value;
+        }
+        try {
+            return raw(field) != null ? Float.parseFloat(raw(field)) : Float.NaN;
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+    private static String intern(String value) {
+        return value != null ? value.intern() : null;
+    }
+
+    private static long parseLong(Function<String, String> info, Raw field, String[] raw) {
+        String value = info.apply(field.name());
+        if (value == null) {
+            return NO_LONG;
+        }
+        try {
+            long parsed = Long.parseLong(value);
+            if (parsed != NO_LONG && Long.toString(parsed).equals(value)) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // kept as a string below
+        }
+        raw[field.ordinal()] = value;
+        return NO_LONG;
+    }
+
+    private static int parseInt(Function<String, String> info, Raw field, String[] raw) {
+        long parsed = parseLong(info, field, raw);
+        if (parsed != NO_LONG && (parsed <= NO_INT || parsed > Integer.MAX_VALUE)) {
+            raw[field.ordinal()] = info.apply(field.name());
+            return NO_INT;
+        }
+        return parsed == NO_LONG ? NO_INT : (int) parsed;
+    }
+
+    private static float parseFloat(String value, Raw field, String[] raw) {
+        if (value == null) {
+            return Float.NaN;
+        }
+        try {
+            float parsed = Float.parseFloat(value);
+            if (!Float.isNaN(parsed) && Float.toString(parsed).equals(value)) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // kept as a string below
+        }
+        raw[field.ordinal()] = value;
+        return Float.NaN;
+    }
+
+    private String format(long value, Raw field) {
+        return value != NO_LONG ? Long.toString(value) : raw(field);
+    }
+
+    private String format(int value, Raw field) {
+        return value != NO_INT ? Integer.toString(value) : raw(field);
+    }
+
+    private String format(float value, Raw field) {
+        return !Float.isNaN(value) ? Float.toString(value) : raw(field);
+    }
+}
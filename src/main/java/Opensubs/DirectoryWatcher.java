@@ -0,0 +1,207 @@
+package Opensubs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a directory, and with {@code recursive} every directory below it, and hands new or
+ * changed video files to a {@link SubtitleFetcher} once they have settled.
+ * <p>
+ * A file counts as settled when no event was seen for it for the quiet period and its size and
+ * modification time did not change since the last look, so files that are still being copied or
+ * downloaded are not hashed half way. Directories created later are watched as well, and their
+ * existing files are picked up. If the watch service loses events, the whole tree is queued
+ * again; files that already have subtitles are skipped by the fetcher.
+ */
+public class DirectoryWatcher implements Closeable {
+
+    private final SubtitleFetcher fetcher;
+    private final Path root;
+    private final boolean recursive;
+    private final long quietMillis;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Set<Path> watched = new HashSet<>();
+    private final Map<Path, Pending> pending = new HashMap<>();
+
+    /**
+     * Starts watching right away, so files that appear while an initial scan runs are not missed.
+     *
+     * @param quietMillis how long a file must go without changes before it is processed
+     */
+    public DirectoryWatcher(SubtitleFetcher fetcher, Path root, boolean recursive, long quietMillis) throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new IllegalArgumentException("Not a directory: " + root);
+        }
+        this.fetcher = fetcher;
+        this.root = root;
+        this.recursive = recursive;
+        this.quietMillis = quietMillis;
+        this.watchService = root.getFileSystem().newWatchService();
+        register(root, false);
+    }
+
+    /**
+     * Processes settled files until the thread is interrupted or the watcher is closed.
+     */
+    public void watch() throws IOException, InterruptedException {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = pending.isEmpty() ? watchService.take() : watchService.poll(quietMillis, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    handle(key);
+                }
+                List<Path> settled = settled();
+                if (!settled.isEmpty()) {
+                    fetcher.process(settled);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // closed from another thread
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void handle(WatchKey key) throws IOException {
+        Path dir = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                register(root, true);
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (recursive && event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    register(path, true);
+                }
+            } else {
+                offer(path);
+            }
+        }
+        if (!key.reset()) {
+            watched.remove(directories.remove(key));
+        }
+    }
+
+    /**
+     * Watches {@code start}, and its subdirectories when recursive. With {@code queueFiles} the
+     * video files found along the way are queued as well.
+     */
+    private void register(Path start, boolean queueFiles) throws IOException {
+        Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), recursive ? Integer.MAX_VALUE : 1,
+                new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                        if (watched.add(dir)) {
+                            directories.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                    StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (queueFiles && attrs.isRegularFile()) {
+                            offer(file);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        // gone again or not readable, nothing to watch
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+    }
+
+    private void offer(Path file) {
+        // hidden files include our own partial downloads
+        if (file.getFileName().toString().startsWith(".") || !fetcher.isVideoFile(file)) {
+            return;
+        }
+        Pending entry = pending.get(file);
+        if (entry != null) {
+            entry.lastEvent = System.currentTimeMillis();
+            return;
+        }
+        try {
+            pending.put(file, new Pending(Files.size(file), Files.getLastModifiedTime(file).toMillis()));
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+
+    /**
+     * Removes and returns the queued files that did not change during the quiet period.
+     */
+    private List<Path> settled() {
+        long now = System.currentTimeMillis();
+        List<Path> settled = new ArrayList<>();
+        for (Iterator<Map.Entry<Path, Pending>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Path, Pending> entry = it.next();
+            Pending file = entry.getValue();
+            if (now - file.lastEvent < quietMillis) {
+                continue;
+            }
+            long size;
+            long lastModified;
+            try {
+                size = Files.size(entry.getKey());
+                lastModified = Files.getLastModifiedTime(entry.getKey()).toMillis();
+            } catch (IOException e) {
+                // deleted or renamed before it settled
+                it.remove();
+                continue;
+            }
+            if (size == file.size && lastModified == file.lastModified) {
+                it.remove();
+                settled.add(entry.getKey());
+            } else {
+                file.size = size;
+                file.lastModified = lastModified;
+                file.lastEvent = now;
+            }
+        }
+        return settled;
+    }
+
+    private static class Pending {
+        long lastEvent = System.currentTimeMillis();
+        long size;
+        long lastModified;
+
+        Pending(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package Opensubs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Turns a video file name into the parts of a subtitle search query: the title words, the season
+ * and episode of an {@code S01E02} or {@code s1x02} marker and the number of a {@code Part N}
+ * marker. The file name is scanned once without regular expressions, so one instance can be
+ * shared by all threads.
+ */
+public class FilenameParser {
+
+    public static final Set<String> DEFAULT_IGNORED_WORDS = Collections.unmodifiableSet(Stream.of(
+            "AC",
+            "HD",
+            "season",
+            "episode",
+            "WEB",
+            "DL",
+            "HDCLUB",
+            "BDrip",
+            "multisub",
+            "BluRay",
+            "molpol",
+            "HEVC",
+            "anoXmous",
+            "sujaidr",
+            "DVDScr",
+            "xvid",
+            "HQ",
+            "CM"
+    ).map(String::toLowerCase).collect(Collectors.toSet()));
+
+    private final Set<String> ignoredWords;
+
+    public FilenameParser() {
+        this(DEFAULT_IGNORED_WORDS);
+    }
+
+    /**
+     * @param ignoredWords lower case words that are dropped from the title, such as release tags
+     */
+    public FilenameParser(Set<String> ignoredWords) {
+        this.ignoredWords = ignoredWords;
+    }
+
+    /**
+     * Parses a file name, taking the title from the name without its extension.
+     */
+    public ParsedName parse(String filename) {
+        int indexOfExtension = filename.lastIndexOf('.');
+        return parse(indexOfExtension > -1 ? filename.substring(0, indexOfExtension) : filename, filename);
+    }
+
+    /**
+     * Takes the title words from {@code name}, which may be a folder name or a name given by the
+     * user, and the season, episode and part from {@code filename}.
+     */
+    public ParsedName parse(String name, String filename) {
+        List<String> titleTokens = new ArrayList<>();
+        int length = name.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean letter = i < length && isLetter(name.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                // single letters are noise such as the `x` in `1x02` or a stray initial
+                if (i - start > 1) {
+                    String token = name.substring(start, i);
+                    if (!ignoredWords.contains(token.toLowerCase())) {
+                        titleTokens.add(token);
+                    }
+                }
+                start = -1;
+            }
+        }
+
+        String season = "";
+        String episode = "";
+        String part = "";
+        for (int i = 0; i < filename.length() && (season.isEmpty() || part.isEmpty()); i++) {
+            char c = filename.charAt(i);
+            if (season.isEmpty() && (c == 's' || c == 'S')) {
+                int seasonEnd = digitsEnd(filename, i + 1);
+                if (seasonEnd > i + 1 && seasonEnd < filename.length()) {
+                    char separator = filename.charAt(seasonEnd);
+                    int episodeEnd = digitsEnd(filename, seasonEnd + 1);
+                    if ((separator == 'x' || separator == 'e' || separator == 'E') && episodeEnd > seasonEnd + 1) {
+                        season = filename.substring(i + 1, seasonEnd);
+                        episode = filename.substring(seasonEnd + 1, episodeEnd);
+                    }
+                }
+            }
+            if (part.isEmpty() && (c == 'p' || c == 'P') && filename.regionMatches(true, i, "part ", 0, 5)) {
+                int partEnd = digitsEnd(filename, i + 5);
+                if (partEnd > i + 5) {
+                    part = filename.substring(i + 5, partEnd);
+                }
+            }
+        }
+
+        return new ParsedName(Collections.unmodifiableList(titleTokens), season, episode, part);
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static int digitsEnd(String s, int from) {
+        int i = from;
+        while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * The result of {@link FilenameParser#parse}. Season, episode and part keep the digits as
+     * written in the file name and are empty when the file name has no such marker.
+     */
+    public static class ParsedName {
+        private final List<String> titleTokens;
+        private final String season;
+        private final String episode;
+        private final String part;
+
+        ParsedName(List<String> titleTokens, String season, String episode, String part) {
+            this.titleTokens = titleTokens;
+            this.season = season;
+            this.episode = episode;
+            this.part = part;
+        }
+
+        public List<String> getTitleTokens() {
+            return titleTokens;
+        }
+
+        public String getSeason() {
+            return season;
+        }
+
+        public String getEpisode() {
+            return episode;
+        }
+
+        public String getPart() {
+            return part;
+        }
+
+        /**
+         * The title words followed by {@code part N} when the file name has a part marker.
+         */
+        public String getQuery() {
+            String title = String.join(" ", titleTokens);
+            if (part.isEmpty()) {
+                return title;
+            }
+            return title.isEmpty() ? "part " + part : title + " part " + part;
+        }
+
+        @Override
+        public String toString() {
+            return getQuery() + " S" + season + "E" + episode;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package Opensubs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers movie hashes between runs so unchanged files are not read again. Entries are keyed by
+ * canonical path and are only reused while the size and last-modified time still match.
+ * <p>
+ * The store is a plain text file with one {@code size, mtime, hash, path} line per entry, tab
+ * separated, after a {@code #evicted, time} line that records when entries of deleted files were
+ * last dropped. That takes a stat per entry, so it is done at most once a week. A cache created
+ * without a file only lives for the current process.
+ */
+public class HashCache {
+
+    private static final long EVICT_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final String EVICTED = "#evicted";
+
+    private final Path storeFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile boolean changed;
+    private long lastEviction;
+
+    public HashCache() {
+        this(null);
+    }
+
+    private HashCache(Path storeFile) {
+        this.storeFile = storeFile;
+    }
+
+    /**
+     * Opens the store at {@code storeFile}, starting empty if it does not exist yet.
+     */
+    public static HashCache load(Path storeFile) throws IOException {
+        HashCache cache = new HashCache(storeFile);
+        try (BufferedReader reader = Files.newBufferedReader(storeFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (fields[0].equals(EVICTED) && fields.length == 2) {
+                    try {
+                        cache.lastEviction = Long.parseLong(fields[1]);
+                    } catch (NumberFormatException e) {
+                        // evict on the next save
+                    }
+                    continue;
+                }
+                if (fields.length < 4) {
+                    continue;
+                }
+                try {
+                    cache.entries.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+                } catch (NumberFormatException e) {
+                    // skip corrupt line, it will be recomputed
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // first run
+        }
+        return cache;
+    }
+
+    public String computeHash(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        seen.add(key);
+
+        Entry entry = entries.get(key);
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            hits.incrementAndGet();
+            return entry.hash;
+        }
+
+        misses.incrementAndGet();
+        String hash = OpenSubtitleHasher.toHex(OpenSubtitleHasher.hash(file.toPath()));
+        entries.put(key, new Entry(size, lastModified, hash));
+        changed = true;
+        return hash;
+    }
+
+    /**
+     * Drops entries for files that no longer exist. Files looked up during this run are known to
+     * exist and are not checked again.
+     *
+     * @return the number of evicted entries
+     */
+    public int evictDeleted() {
+        int evicted = 0;
+        for (Iterator<String> it = entries.keySet().iterator(); it.hasNext(); ) {
+            String path = it.next();
+            if (!seen.contains(path) && !Files.exists(Paths.get(path))) {
+                it.remove();
+                evicted++;
+            }
+        }
+        lastEviction = System.currentTimeMillis();
+        changed = true;
+        return evicted;
+    }
+
+    /**
+     * Writes the store back to disk if anything was hashed, evicting deleted files first when the
+     * last eviction is more than a week ago. Does nothing for an in-memory cache.
+     */
+    public void save() throws IOException {
+        if (storeFile == null) {
+            return;
+        }
+        if (System.currentTimeMillis() - lastEviction > EVICT_INTERVAL_MILLIS) {
+            evictDeleted();
+        }
+        if (!changed) {
+            return;
+        }
+
+        Path dir = storeFile.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, storeFile.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(EVICTED + "\t" + lastEviction);
+            writer.newLine();
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                writer.write(entry.size + "\t" + entry.lastModified + "\t" + entry.hash + "\t" + e.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        changed = false;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        final long size;
+        final long lastModified;
+        final String hash;
+
+        Entry(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+}
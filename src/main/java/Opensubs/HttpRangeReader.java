@@ -0,0 +1,105 @@
+package Opensubs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads a file on a web server with HTTP {@code Range} requests, so a video on remote storage can
+ * be hashed by fetching 128 KB instead of the whole file. The size comes from a {@code HEAD}
+ * request, every read is one {@code GET} for the bytes it needs. Reads may run concurrently, each
+ * on its own connection.
+ * <p>
+ * A server that answers a range request with the whole file fails the read rather than sending
+ * it.
+ */
+public class HttpRangeReader implements PositionalReader {
+
+    private final URL url;
+    private final ClientSettings settings;
+    private volatile long size = -1;
+
+    public HttpRangeReader(URL url) {
+        this(url, new ClientSettings());
+    }
+
+    /**
+     * @param settings the connect and read timeouts to use
+     */
+    public HttpRangeReader(URL url, ClientSettings settings) {
+        this.url = url;
+        this.settings = settings;
+    }
+
+    @Override
+    public long size() throws IOException {
+        if (size < 0) {
+            HttpURLConnection connection = open();
+            try {
+                connection.setRequestMethod("HEAD");
+                int status = connection.getResponseCode();
+                long length = connection.getContentLengthLong();
+                if (status != HttpURLConnection.HTTP_OK || length < 0) {
+                    throw new IOException("No length for " + url + ", status " + status);
+                }
+                size = length;
+            } finally {
+                connection.disconnect();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        long end = Math.min(position + dst.remaining(), size());
+        if (position >= end) {
+            return position >= size() ? -1 : 0;
+        }
+        HttpURLConnection connection = open();
+        connection.setRequestProperty("Range", "bytes=" + position + "-" + (end - 1));
+        int status = connection.getResponseCode();
+        if (status == 416) {
+            connection.disconnect();
+            return -1;
+        }
+        String contentRange = connection.getHeaderField("Content-Range");
+        if (status != HttpURLConnection.HTTP_PARTIAL || contentRange == null
+                || !contentRange.startsWith("bytes " + position + "-")) {
+            connection.disconnect();
+            throw new IOException(url + " does not support range requests, status " + status);
+        }
+        int read = 0;
+        try (InputStream in = connection.getInputStream();
+             ReadableByteChannel body = Channels.newChannel(in)) {
+            int n;
+            while (dst.hasRemaining() && (n = body.read(dst)) >= 0) {
+                read += n;
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
+    private HttpURLConnection open() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(settings.getConnectTimeoutMillis());
+        connection.setReadTimeout(settings.getReadTimeoutMillis());
+        return connection;
+    }
+
+    /**
+     * Nothing to release, idle connections are kept by {@link HttpURLConnection}.
+     */
+    @Override
+    public void close() {
+    }
+}
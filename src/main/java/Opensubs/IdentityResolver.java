@@ -0,0 +1,178 @@
+package Opensubs;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maps the titles parsed from file names to IMDb ids, so that subtitles can be searched by
+ * {@code imdbid}, which the server answers faster and more precisely than a free text query.
+ * Each title is looked up once with SearchMoviesOnIMDB and only an IMDb title that reads the
+ * same, ignoring case, punctuation and the year, is taken. Files whose title has no such match
+ * keep being searched by name.
+ * <p>
+ * The store is a text file with one {@code time, id, kind, title} line per title, tab separated,
+ * where the kind is {@code movie} or {@code tv} and the id is {@code -} for titles IMDb did not
+ * know. Those are looked up again after a week. A resolver created without a file only lives for
+ * the current process.
+ */
+public class IdentityResolver {
+
+    private static final long UNKNOWN_RETRY_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final String UNKNOWN = "-";
+    private static final Pattern YEAR = Pattern.compile("\\((\\d{4})\\)");
+    private static final Pattern PARENTHESES = Pattern.compile("\\([^)]*\\)");
+
+    private final OpenSubtitle openSubtitle;
+    private final Path storeFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<String>> lookups = new ConcurrentHashMap<>();
+
+    public IdentityResolver(OpenSubtitle openSubtitle) {
+        this(openSubtitle, null);
+    }
+
+    private IdentityResolver(OpenSubtitle openSubtitle, Path storeFile) {
+        this.openSubtitle = openSubtitle;
+        this.storeFile = storeFile;
+    }
+
+    /**
+     * Opens the store at {@code storeFile}, starting empty if it does not exist yet.
+     */
+    public static IdentityResolver load(OpenSubtitle openSubtitle, Path storeFile) throws IOException {
+        IdentityResolver resolver = new IdentityResolver(openSubtitle, storeFile);
+        try (BufferedReader reader = Files.newBufferedReader(storeFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length < 4) {
+                    continue;
+                }
+                try {
+                    resolver.entries.put(fields[2] + "\t" + fields[3], new Entry(Long.parseLong(fields[0]), fields[1]));
+                } catch (NumberFormatException e) {
+                    // skip corrupt line, it will be looked up again
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // first run
+        }
+        return resolver;
+    }
+
+    /**
+     * Looks the title up unless it was resolved before. Concurrent calls for the same title wait
+     * for one lookup, a lookup that failed is tried again by the next call.
+     *
+     * @param series whether the title is a TV show rather than a movie
+     * @return the IMDb id without the {@code tt} prefix, or {@code null} when it is not known
+     */
+    public String resolve(String title, boolean series) {
+        String normalized = normalize(title);
+        if (normalized.isEmpty()) {
+            return null;
+        }
+        String key = (series ? "tv" : "movie") + "\t" + normalized;
+        Entry entry = entries.get(key);
+        if (entry != null && (!entry.imdbId.equals(UNKNOWN)
+                || System.currentTimeMillis() - entry.time < UNKNOWN_RETRY_MILLIS)) {
+            openSubtitle.getMetrics().increment("identity.cache.hits");
+            return entry.imdbId.equals(UNKNOWN) ? null : entry.imdbId;
+        }
+
+        CompletableFuture<String> lookup = new CompletableFuture<>();
+        CompletableFuture<String> existing = lookups.putIfAbsent(key, lookup);
+        if (existing != null) {
+            return existing.join();
+        }
+        openSubtitle.getMetrics().increment("identity.cache.misses");
+        try {
+            String imdbId = match(openSubtitle.findImdbIds(title), normalized, series);
+            entries.put(key, new Entry(System.currentTimeMillis(), imdbId != null ? imdbId : UNKNOWN));
+            lookup.complete(imdbId);
+        } catch (XmlRpcException | RuntimeException e) {
+            // not stored, the next call tries again
+            lookup.complete(null);
+        } finally {
+            // a found id is in entries by now, a failed lookup must not stick for the whole process
+            lookups.remove(key, lookup);
+        }
+        return lookup.join();
+    }
+
+    /**
+     * Takes the first IMDb title that reads like the parsed one, with or without its year.
+     * TV shows prefer titles that IMDb marks as series.
+     */
+    private static String match(Map<String, String> imdbIds, String normalized, boolean series) {
+        String found = null;
+        for (Map.Entry<String, String> candidate : imdbIds.entrySet()) {
+            String imdbTitle = candidate.getValue();
+            String name = normalize(PARENTHESES.matcher(imdbTitle).replaceAll(" "));
+            Matcher year = YEAR.matcher(imdbTitle);
+            boolean same = name.equals(normalized) || (year.find() && (name + " " + year.group(1)).equals(normalized));
+            if (!same) {
+                continue;
+            }
+            if (!series || imdbTitle.startsWith("\"") || imdbTitle.contains("TV Series")) {
+                return candidate.getKey();
+            }
+            if (found == null) {
+                found = candidate.getKey();
+            }
+        }
+        return found;
+    }
+
+    private static String normalize(String title) {
+        return title.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+    }
+
+    /**
+     * Writes the store back to disk. Does nothing for a resolver without a file.
+     */
+    public void save() throws IOException {
+        if (storeFile == null) {
+            return;
+        }
+        Path dir = storeFile.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, storeFile.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                writer.write(e.getValue().time + "\t" + e.getValue().imdbId + "\t" + e.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        final long time;
+        final String imdbId;
+
+        Entry(long time, String imdbId) {
+            this.time = time;
+            this.imdbId = imdbId;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package Opensubs;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Converts between the language codes users type and the ones OpenSubtitles uses. The API
+ * identifies languages by their ISO 639-2/B code ({@code fre}, {@code ger}), while many people
+ * know the ISO 639-2/T ({@code fra}, {@code deu}) or ISO 639-1 ({@code fr}, {@code de}) codes.
+ * Subtitle files are named with the two letter code, as media players expect.
+ */
+public final class Languages {
+
+    /**
+     * ISO 639-2/B code, as used by the API, followed by its two letter code. OpenSubtitles has
+     * its own codes for Brazilian Portuguese and traditional Chinese.
+     */
+    private static final String[] CODES = {
+            "alb", "sq", "ara", "ar", "arm", "hy", "baq", "eu", "ben", "bn", "bos", "bs", "bul", "bg",
+            "bur", "my", "cat", "ca", "chi", "zh", "cze", "cs", "dan", "da", "dut", "nl", "eng", "en",
+            "est", "et", "fin", "fi", "fre", "fr", "geo", "ka", "ger", "de", "glg", "gl", "gre", "el",
+            "heb", "he", "hin", "hi", "hrv", "hr", "hun", "hu", "ice", "is", "ind", "id", "ita", "it",
+            "jpn", "ja", "kor", "ko", "lav", "lv", "lit", "lt", "mac", "mk", "may", "ms", "nor", "no",
+            "per", "fa", "pob", "pb", "pol", "pl", "por", "pt", "rum", "ro", "rus", "ru", "slo", "sk",
+            "slv", "sl", "spa", "es", "srp", "sr", "swe", "sv", "tam", "ta", "tel", "te", "tha", "th",
+            "tur", "tr", "ukr", "uk", "urd", "ur", "vie", "vi", "wel", "cy", "zht", "zt"
+    };
+
+    /**
+     * ISO 639-2/T codes that differ from the /B code.
+     */
+    private static final String[] TERMINOLOGY_CODES = {
+            "sqi", "alb", "hye", "arm", "eus", "baq", "mya", "bur", "zho", "chi", "ces", "cze",
+            "nld", "dut", "fra", "fre", "kat", "geo", "deu", "ger", "ell", "gre", "isl", "ice",
+            "mkd", "mac", "msa", "may", "fas", "per", "ron", "rum", "slk", "slo", "cym", "wel"
+    };
+
+    private static final Map<String, String> TWO_LETTER_CODES = new HashMap<>();
+    private static final Map<String, String> SUB_LANGUAGE_IDS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < CODES.length; i += 2) {
+            TWO_LETTER_CODES.put(CODES[i], CODES[i + 1]);
+            SUB_LANGUAGE_IDS.put(CODES[i + 1], CODES[i]);
+        }
+        for (int i = 0; i < TERMINOLOGY_CODES.length; i += 2) {
+            SUB_LANGUAGE_IDS.put(TERMINOLOGY_CODES[i], TERMINOLOGY_CODES[i + 1]);
+        }
+    }
+
+    private Languages() {
+    }
+
+    /**
+     * @return the {@code sublanguageid} for a two or three letter code, e.g. {@code fre} for
+     * {@code fr}, {@code fra} or {@code FRE}; unknown codes are returned lower cased
+     */
+    public static String toSubLanguageId(String code) {
+        String normalized = code.trim().toLowerCase(Locale.ROOT);
+        return SUB_LANGUAGE_IDS.getOrDefault(normalized, normalized);
+    }
+
+    /**
+     * @return the two letter code to name a subtitle file of the {@code sublanguageid} with, or the
+     * id itself when there is none
+     */
+    public static String toFileCode(String subLanguageId) {
+        return TWO_LETTER_CODES.getOrDefault(subLanguageId, subLanguageId);
+    }
+}
@@ -0,0 +1,150 @@
+package Opensubs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A size-bounded {@link SearchCache} that evicts the least recently used entry and expires
+ * entries after a fixed time to live. It can be backed by a file so entries survive restarts;
+ * call {@link #save()} to write it. The immutable result lists are handed out as they are stored.
+ */
+public class LruSearchCache implements SearchCache {
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Path storeFile;
+    private final LinkedHashMap<String, Entry> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public LruSearchCache(int maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, null);
+    }
+
+    private LruSearchCache(int maxEntries, long ttlMillis, Path storeFile) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.storeFile = storeFile;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > LruSearchCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Opens a cache backed by {@code storeFile}, starting empty if it does not exist yet or was
+     * written by an incompatible version. Expired entries are not loaded.
+     */
+    @SuppressWarnings("unchecked")
+    public static LruSearchCache load(Path storeFile, int maxEntries, long ttlMillis) throws IOException {
+        LruSearchCache cache = new LruSearchCache(maxEntries, ttlMillis, storeFile);
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(storeFile)))) {
+            long now = System.currentTimeMillis();
+            Map<String, Entry> stored = (Map<String, Entry>) in.readObject();
+            stored.forEach((key, entry) -> {
+                if (entry.expiresAt > now) {
+                    cache.entries.put(key, entry);
+                }
+            });
+        } catch (NoSuchFileException e) {
+            // first run
+        } catch (ClassNotFoundException | InvalidClassException | StreamCorruptedException | ClassCastException e) {
+            // written by another version, start over
+        }
+        return cache;
+    }
+
+    @Override
+    public synchronized List<CompactSubtitleInfo> get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(key);
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.results;
+    }
+
+    @Override
+    public synchronized void put(String key, List<CompactSubtitleInfo> results) {
+        entries.put(key, new Entry(System.currentTimeMillis() + ttlMillis, Collections.unmodifiableList(new ArrayList<>(results))));
+    }
+
+    /**
+     * Writes the unexpired entries to the backing file. Does nothing for an in-memory cache.
+     */
+    public void save() throws IOException {
+        if (storeFile == null) {
+            return;
+        }
+        LinkedHashMap<String, Entry> snapshot;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            entries.values().removeIf(entry -> entry.expiresAt <= now);
+            snapshot = new LinkedHashMap<>(entries);
+        }
+
+        Path dir = storeFile.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, storeFile.getFileName().toString(), ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeObject(snapshot);
+        }
+        Files.move(tmp, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry implements Serializable {
+        private static final long serialVersionUID = 2L;
+
+        final long expiresAt;
+        final List<CompactSubtitleInfo> results;
+
+        Entry(long expiresAt, List<CompactSubtitleInfo> results) {
+            this.expiresAt = expiresAt;
+            this.results = results;
+        }
+    }
+}
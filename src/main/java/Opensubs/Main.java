@@ -8,73 +8,26 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.xmlrpc.XmlRpcException;
 
+import javax.management.JMException;
 import java.io.IOException;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Main {
-    private static final Set<String> possibleExtensions = Stream.of(
-            "mp4",
-            "avi",
-            "mkv",
-            "m4v"
-    ).map(s -> "." + s).collect(Collectors.toSet());
+    private static final int SEARCH_CACHE_SIZE = 10000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 60000;
+    private static final long CALL_TIMEOUT_MILLIS = 90000;
+    private static final long WATCH_QUIET_MILLIS = 5000;
 
-    private static final Set<String> skippableExtensions = Stream.of(
-            "wmv",
-            "png",
-            "mov",
-            "srt",
-            "txt",
-            "jpg",
-            "jpeg",
-            "DS_Store",
-            "gz",
-            "dat",
-            "zip",
-            "nfo",
-            "db",
-            "m2ts",
-            "sub",
-            "rar",
-            "idx",
-            "sfv"
-    ).map(s -> "." + s).collect(Collectors.toSet());
-
-    private static final Set<String> forbiddenWords = Stream.of(
-            "AC",
-            "HD",
-            "season",
-            "episode",
-            "WEB",
-            "DL",
-            "HDCLUB",
-            "BDrip",
-            "multisub",
-            "BluRay",
-            "molpol",
-            "HEVC",
-            "anoXmous",
-            "sujaidr",
-            "DVDScr",
-            "xvid",
-            "HQ",
-            "CM"
-    ).map(String::toLowerCase).collect(Collectors.toSet());
-
-    public static void main(String[] args) throws IOException, XmlRpcException {
+    public static void main(String[] args) throws IOException, XmlRpcException, InterruptedException {
         Options options = new Options();
         options.addOption(Option.builder("u")
                 .desc("username")
@@ -90,16 +43,55 @@ public class Main {
                 .hasArg()
                 .desc("series name to be used when searching")
                 .build());
+        options.addOption(Option.builder("lang")
+                .hasArg()
+                .desc("languages to fetch, e.g. eng,spa,fre (default eng); with more than one, subtitles are saved as movie.en.srt, movie.es.srt, ...")
+                .build());
+        options.addOption(Option.builder("cache")
+                .hasArg()
+                .desc("directory for the hash and search caches, the scan index and the session (default ~/.fetch-subs)")
+                .build());
+        options.addOption(Option.builder("cacheTtl")
+                .hasArg()
+                .desc("hours that search results are cached (default 24, 0 disables the search cache)")
+                .build());
+        options.addOption(Option.builder("threads")
+                .hasArg()
+                .desc("number of hash, search and download threads, e.g. 2,4,2 (default 1,1,1)")
+                .build());
+        options.addOption(Option.builder("server")
+                .hasArg()
+                .desc("XML-RPC endpoint (default " + OpenSubtitle.OPEN_SUBTITLES_SERVER + ")")
+                .build());
+        options.addOption(Option.builder("rate")
+                .hasArg()
+                .desc("API requests per second (default 4, 0 disables pacing)")
+                .build());
+        options.addOption(Option.builder("metrics")
+                .hasArg()
+                .desc("write timings and counts as JSON to this file, or - for standard output, when done")
+                .build());
+        options.addOption("hedge", false, "send a second copy of searches that are slower than usual and use the first answer");
         options.addOption("H", false, "disable hash search");
         options.addOption("P", false, "include parent folder name in search");
         options.addOption("R", false, "recursive");
+        options.addOption("W", false, "keep running after the scan and fetch subtitles for new video files as they appear");
         options.addOption("F", false, "force re-fetch of subtitles even if one is found (this will overwrite existing .srt files!)");
         CommandLineParser parser = new DefaultParser();
         boolean force = false;
         boolean disableHash = true;
         boolean recursive = false;
         boolean useParentFolderName = false;
+        boolean watch = false;
+        boolean hedge = false;
+        int[] threads = {1, 1, 1};
         String root = null;
+        Path cacheDir = Paths.get(System.getProperty("user.home"), ".fetch-subs");
+        long cacheTtlHours = 24;
+        double requestsPerSecond = new ClientSettings().getRequestsPerSecond();
+        String serverUrl = null;
+        String metricsTarget = null;
+        List<String> languages = Arrays.asList("eng");
         String seriesName = null;
         String username = "";
         String password = "";
@@ -116,7 +108,34 @@ public class Main {
             disableHash = cmd.hasOption("H");
             useParentFolderName = cmd.hasOption("P");
             recursive = cmd.hasOption("R");
-        } catch (ParseException exp) {
+            watch = cmd.hasOption("W");
+            hedge = cmd.hasOption("hedge");
+            if (cmd.hasOption("threads")) {
+                String[] counts = cmd.getOptionValue("threads").split(",");
+                for (int i = 0; i < threads.length; i++) {
+                    threads[i] = Integer.parseInt(counts[Math.min(i, counts.length - 1)].trim());
+                }
+            }
+            if (cmd.hasOption("cacheTtl")) {
+                cacheTtlHours = Long.parseLong(cmd.getOptionValue("cacheTtl"));
+            }
+            serverUrl = cmd.getOptionValue("server");
+            metricsTarget = cmd.getOptionValue("metrics");
+            if (cmd.hasOption("lang")) {
+                languages = new ArrayList<>();
+                for (String language : cmd.getOptionValue("lang").split(",")) {
+                    if (!language.trim().isEmpty()) {
+                        languages.add(language.trim());
+                    }
+                }
+            }
+            if (cmd.hasOption("rate")) {
+                requestsPerSecond = Double.parseDouble(cmd.getOptionValue("rate"));
+            }
+            if (cmd.hasOption("cache")) {
+                cacheDir = Paths.get(cmd.getOptionValue("cache"));
+            }
+        } catch (ParseException | NumberFormatException exp) {
             System.err.println("Parsing failed.  Reason: " + exp.getMessage());
             System.exit(1);
         }
@@ -127,162 +146,117 @@ public class Main {
             System.out.println("Path does not exist: " + root);
             System.exit(1);
         }
-
-        final List<Path> paths = new ArrayList<>();
-        if (Files.isRegularFile(rootPath)) {
-            paths.add(rootPath);
-        } else {
-            paths.addAll(Files.list(rootPath).collect(Collectors.toList()));
+        if (watch && !Files.isDirectory(rootPath)) {
+            System.out.println("Watching needs a directory: " + root);
+            System.exit(1);
         }
 
-        OpenSubtitle openSubtitle = new OpenSubtitle();
-        openSubtitle.login(username, password);
-
-        while (!paths.isEmpty()) {
-            Path p = paths.remove(0);
-            if (Files.isDirectory(p)) {
-                if (recursive) {
-                    paths.addAll(Files.list(p).collect(Collectors.toList()));
-                }
-                continue;
-            }
-
-            String filename = p.getFileName().toString();
-            int indexOfExtension = filename.lastIndexOf('.');
-            if (indexOfExtension > -1) {
-                String extension = filename.substring(indexOfExtension);
-                if (skippableExtensions.contains(extension)) {
-                    continue;
-                }
-
-                if (!possibleExtensions.contains(extension)) {
-                    System.out.println("Unrecognized extension: " + extension);
-                    continue;
-                }
-
-                Path subtitlePath = p.getParent().resolve(filename.replace(extension, ".srt"));
-                if (!force && Files.exists(subtitlePath)) {
-                    System.out.println("Found existing subtitle. Skipping: " + p.toString());
-                } else {
-                    // attempt hash search
-                    System.out.println("File - `" + p.getFileName().toString() + "`");
-                    List<SubtitleInfo> results;
-                    if (!disableHash) {
-                        results = openSubtitle.Search(p.toAbsolutePath().toString(), "eng");
-                        System.out.println("\t" + results.size() + " results from hash search. ");
-                    } else {
-                        results = Collections.emptyList();
-                    }
-
-                    // attempt search by name
-                    if (results.isEmpty()) {
-                        String season;
-                        String episode;
-                        Optional<SeasonEpisode> seasonEpisode = findSeasonEpisode(filename);
-                        if (seasonEpisode.isPresent()) {
-                            season = seasonEpisode.get().season;
-                            episode = seasonEpisode.get().episode;
-                        } else {
-                            season = "";
-                            episode = "";
-                        }
-
-                        String query = "";
-
-                        // start with Folder and Filename
-                        String name = filename.replace(extension, "");
-                        if (useParentFolderName) {
-                            name = p.getParent().getFileName() + " " + name;
-                        }
-                        if (seriesName != null && seriesName.trim().length() > 0) {
-                            name = seriesName.trim();
-                        }
-
-                        // remove non-words
-                        {
-                            Pattern pattern = Pattern.compile("([^0-9\\W_]*)");
-                            Matcher matcher = pattern.matcher(name);
-                            int index = 0;
-                            while (index < name.length()
-                                    && matcher.find(index)) {
-                                String group = matcher.group();
-                                if (group.length() > 1) {
-                                    query += group + " ";
-                                }
-                                index = matcher.end() + 1;
-                            }
-                            query = query.trim();
-                        }
-
-                        // find `part N`
-                        {
-                            Pattern pattern = Pattern.compile("([Pp][Aa][Rr][Tt] \\d+)");
-                            Matcher matcher = pattern.matcher(filename);
-                            if (matcher.find()) {
-                                String group = matcher.group();
-                                query += " " + group;
-                            }
-                        }
-
-                        // remove special words
-                        query = Arrays.stream(query.split(" "))
-                                .filter(word -> !forbiddenWords.contains(word.toLowerCase()))
-                                .reduce("", (s, s2) -> s + " " + s2)
-                                .trim();
+        HashCache hashCache = HashCache.load(cacheDir.resolve("hashes"));
+        ClientSettings settings = new ClientSettings();
+        settings.setTransport(ClientSettings.Transport.POOLED);
+        // the hash search and name search stages each run the search threads
+        settings.setMaxConnections(2 * threads[1]);
+        settings.setConnectTimeoutMillis(CONNECT_TIMEOUT_MILLIS);
+        settings.setReadTimeoutMillis(READ_TIMEOUT_MILLIS);
+        settings.setCallTimeoutMillis(CALL_TIMEOUT_MILLIS);
+        settings.setHedgeRequests(hedge);
+        settings.setGzipResponses(true);
+        settings.setRequestsPerSecond(requestsPerSecond);
+        if (serverUrl != null) {
+            settings.setServerUrl(serverUrl);
+        }
+        OpenSubtitle openSubtitle = new OpenSubtitle(settings);
+        try {
+            openSubtitle.getMetrics().register();
+        } catch (JMException e) {
+            System.err.println("Metrics are not available over JMX: " + e);
+        }
+        openSubtitle.setHashCache(hashCache);
+        LruSearchCache searchCache = cacheTtlHours > 0
+                ? LruSearchCache.load(cacheDir.resolve("searches"), SEARCH_CACHE_SIZE, TimeUnit.HOURS.toMillis(cacheTtlHours))
+                : null;
+        openSubtitle.setSearchCache(searchCache);
+        SessionManager session = new SessionManager(openSubtitle, username, password, cacheDir.resolve("session"));
+        session.open();
 
-                        System.out.println("\tQuerying: `" + query + "` S" + season + "E" + episode);
-                        results = openSubtitle.getTvSeriesSubs(
-                                query,
-                                season,
-                                episode,
-                                "10",
-                                "eng");
-                        System.out.println("\t\t" + results.size() + " results from search. ");
-                    }
+        SubtitleFetcher fetcher = new SubtitleFetcher(openSubtitle);
+        fetcher.setForce(force);
+        fetcher.setDisableHash(disableHash);
+        fetcher.setUseParentFolderName(useParentFolderName);
+        fetcher.setSeriesName(seriesName);
+        fetcher.setThreads(threads[0], threads[1], threads[2]);
+        fetcher.setLanguages(languages);
+        // what counts as done depends on the languages, so each set has its own index
+        ScanIndex scanIndex = ScanIndex.load(cacheDir.resolve(fetcher.getLanguages().equals(Arrays.asList("eng"))
+                ? "index" : "index-" + String.join("-", fetcher.getLanguages())));
+        fetcher.setScanIndex(scanIndex);
+        IdentityResolver identities = IdentityResolver.load(openSubtitle, cacheDir.resolve("identities"));
+        fetcher.setIdentityResolver(identities);
+        if (!watch) {
+            fetcher.run(rootPath, recursive);
+            shutdown(openSubtitle, session, hashCache, searchCache, scanIndex, identities, !disableHash, metricsTarget);
+            return;
+        }
 
-                    results.forEach(i -> System.out.println("\t\t" + i.getMovieName()));
-                    Optional<SubtitleInfo> subtitleInfo = results.stream()
-                            .filter(i -> i.getLanguageName().toLowerCase().startsWith("eng"))
-                            .findFirst();
-                    if (subtitleInfo.isPresent()) {
-                        SubtitleInfo subtitleInfo1 = subtitleInfo.get();
-                        URL url = new URL(subtitleInfo1.getSubDownloadLink().replaceAll("\\.gz", ""));
-                        System.out.print("\tDownloading... ");
-                        openSubtitle.downloadSubtitle(url, subtitlePath.toString());
-                        System.out.println("DONE");
-                    } else {
-                        System.out.println("\tNot found");
-                    }
-                    System.out.println();
+        // watch from the start so files that arrive during the scan are not missed
+        DirectoryWatcher watcher = new DirectoryWatcher(fetcher, rootPath, recursive, WATCH_QUIET_MILLIS);
+        AtomicBoolean stopped = new AtomicBoolean();
+        boolean hashEnabled = !disableHash;
+        String metricsFile = metricsTarget;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (stopped.compareAndSet(false, true)) {
+                try {
+                    watcher.close();
+                    shutdown(openSubtitle, session, hashCache, searchCache, scanIndex, identities, hashEnabled, metricsFile);
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
-
-        }
-
-        openSubtitle.logOut();
+        }));
+        fetcher.run(rootPath, recursive);
+        System.out.println("Watching " + rootPath + " for new files...");
+        watcher.watch();
     }
 
-    public static class SeasonEpisode {
-        final String season;
-        final String episode;
+    /**
+     * Keeps the session for the next run, saves the caches and prints their statistics, and
+     * writes the metrics to {@code metricsTarget} if given.
+     */
+    private static void shutdown(OpenSubtitle openSubtitle, SessionManager session, HashCache hashCache,
+                                 LruSearchCache searchCache, ScanIndex scanIndex, IdentityResolver identities,
+                                 boolean hashEnabled,
+                                 String metricsTarget) throws IOException {
+        session.close();
+        openSubtitle.close();
 
-        SeasonEpisode(String season, String episode) {
-            this.season = season;
-            this.episode = episode;
+        if (hashEnabled) {
+            // nothing was hashed when hashing is disabled
+            hashCache.save();
         }
-    }
-
-    private static Optional<SeasonEpisode> findSeasonEpisode(String filename) {
-        Pattern pattern = Pattern.compile("([sS]\\d+[xeE]\\d+)");
-        Matcher matcher = pattern.matcher(filename);
-        if (matcher.find()) {
-            String seasonEpisode = matcher.group(1).toLowerCase();
-            int indexOfE = Math.max(seasonEpisode.indexOf('e'), seasonEpisode.indexOf('x'));
-            String season = seasonEpisode.substring(1, indexOfE);
-            String episode = seasonEpisode.substring(indexOfE + 1);
-            return Optional.of(new SeasonEpisode(season, episode));
+        scanIndex.save();
+        identities.save();
+        if (scanIndex.getDirectoriesSkipped() > 0) {
+            System.out.println("Scan index: " + scanIndex.getDirectoriesSkipped() + " unchanged directories skipped, "
+                    + scanIndex.getDirectoriesListed() + " listed");
+        }
+        if (hashEnabled) {
+            System.out.println("Hash cache: " + hashCache.getHits() + " hits, " + hashCache.getMisses() + " misses");
+        }
+        if (searchCache != null) {
+            searchCache.save();
+            System.out.println("Search cache: " + searchCache.getHits() + " hits, " + searchCache.getMisses() + " misses, "
+                    + searchCache.getEvictions() + " evictions");
+        }
+        if (openSubtitle.getScheduler() != null && openSubtitle.getScheduler().getThrottled() > 0) {
+            System.out.println("Throttled by the server " + openSubtitle.getScheduler().getThrottled() + " times");
+        }
+        if (openSubtitle.getCircuitBreaker() != null && openSubtitle.getCircuitBreaker().getOpened() > 0) {
+            System.out.println("Paused " + openSubtitle.getCircuitBreaker().getOpened() + " times while the API was unavailable");
+        }
+        if ("-".equals(metricsTarget)) {
+            System.out.print(openSubtitle.getMetrics().toJson());
+        } else if (metricsTarget != null) {
+            Files.write(Paths.get(metricsTarget), openSubtitle.getMetrics().toJson().getBytes(StandardCharsets.UTF_8));
         }
-        return Optional.empty();
     }
 }
-
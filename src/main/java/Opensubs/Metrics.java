@@ -0,0 +1,141 @@
+package Opensubs;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters and histograms shared by one {@link OpenSubtitle} and the code that drives it.
+ * Names are dot separated and end in the unit of histograms, e.g. {@code xmlrpc.LogIn.micros}.
+ * <p>
+ * Recorded by the client:
+ * <ul>
+ * <li>{@code hash.micros}, {@code hash.cache.hits}, {@code hash.cache.misses}</li>
+ * <li>{@code xmlrpc.<method>.micros}, {@code xmlrpc.<method>.errors} and, with the pooled
+ * transport, {@code xmlrpc.<method>.responseBytes} as received, before decompression</li>
+ * <li>{@code xmlrpc.retries} after throttling or failures, {@code xmlrpc.hedges} and
+ * {@code xmlrpc.sessionRenewals}</li>
+ * <li>{@code search.cache.hits}, {@code search.cache.misses}, {@code search.results}</li>
+ * <li>{@code download.micros}, {@code download.bytes}, {@code download.retries}</li>
+ * </ul>
+ * {@link SubtitleFetcher} adds {@code stage.<stage>.micros} and the {@code files.skipped},
+ * {@code files.found}, {@code files.notFound} and {@code files.failed} outcomes.
+ */
+public class Metrics implements MetricsMXBean {
+
+    public static final String OBJECT_NAME = "Opensubs:type=Metrics";
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    public void increment(String counter) {
+        add(counter, 1);
+    }
+
+    public void add(String counter, long delta) {
+        counters.computeIfAbsent(counter, name -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * Reports a count kept elsewhere, read whenever the counters are.
+     */
+    public void gauge(String counter, LongSupplier value) {
+        gauges.put(counter, value);
+    }
+
+    public void record(String histogram, long value) {
+        histogram(histogram).record(value);
+    }
+
+    /**
+     * Records the time since {@code startNanos}, a {@link System#nanoTime()}, in microseconds.
+     */
+    public void recordSince(String histogram, long startNanos) {
+        record(histogram, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+
+    public Histogram histogram(String histogram) {
+        return histograms.computeIfAbsent(histogram, name -> new Histogram());
+    }
+
+    /**
+     * @return the counter's value, or 0 if it was never incremented
+     */
+    public long getCounter(String counter) {
+        LongSupplier gauge = gauges.get(counter);
+        if (gauge != null) {
+            return gauge.getAsLong();
+        }
+        LongAdder adder = counters.get(counter);
+        return adder != null ? adder.sum() : 0;
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, adder) -> values.put(name, adder.sum()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Histogram.Snapshot> getHistograms() {
+        Map<String, Histogram.Snapshot> snapshots = new TreeMap<>();
+        histograms.forEach((name, histogram) -> snapshots.put(name, histogram.snapshot()));
+        return snapshots;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server as {@value #OBJECT_NAME}, replacing
+     * any registered before.
+     */
+    public void register() throws JMException {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (InstanceAlreadyExistsException e) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        }
+    }
+
+    /**
+     * @return every counter and histogram as a JSON object
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n  \"counters\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+            json.append(separator).append("    \"").append(escape(counter.getKey())).append("\": ").append(counter.getValue());
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"histograms\": {");
+        separator = "\n";
+        for (Map.Entry<String, Histogram.Snapshot> histogram : getHistograms().entrySet()) {
+            Histogram.Snapshot snapshot = histogram.getValue();
+            json.append(separator).append("    \"").append(escape(histogram.getKey())).append("\": {")
+                    .append("\"count\": ").append(snapshot.getCount())
+                    .append(", \"sum\": ").append(snapshot.getSum())
+                    .append(", \"min\": ").append(snapshot.getMin())
+                    .append(", \"p50\": ").append(snapshot.getP50())
+                    .append(", \"p95\": ").append(snapshot.getP95())
+                    .append(", \"p99\": ").append(snapshot.getP99())
+                    .append(", \"max\": ").append(snapshot.getMax())
+                    .append('}');
+            separator = ",\n";
+        }
+        return json.append("\n  }\n}\n").toString();
+    }
+
+    private static String escape(String name) {
+        return name.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,13 @@
+package Opensubs;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link Metrics}, registered by {@link Metrics#register()}.
+ */
+public interface MetricsMXBean {
+
+    Map<String, Long> getCounters();
+
+    Map<String, Histogram.Snapshot> getHistograms();
+}
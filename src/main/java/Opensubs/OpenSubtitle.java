@@ -16,45 +16,176 @@
 
 package Opensubs;
 
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.client.XmlRpcClient;
 import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.client.XmlRpcHttpTransportException;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 
 /**
  * Created by sachin on 7/4/16.
+ * <p>
+ * One instance is meant to be shared by all threads of a process. It holds no per-request state,
+ * so searches and downloads can run concurrently over the same session and connection pool;
+ * {@link SearchRequest} and {@link SearchResponse} are immutable.
  */
 public class OpenSubtitle {
-    private static String OPEN_SUBTITLES_SERVER = "http://api.opensubtitles.org/xml-rpc";
+    static final String OPEN_SUBTITLES_SERVER = "http://api.opensubtitles.org/xml-rpc";
     private static String MOVIE_EXTENSIONS = "mp4,mkv,avi,mov";
+    private static final int MAX_RESULTS_PER_CALL = 500;
+    private static final int DOWNLOAD_CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_DOWNLOADED_SOURCES = 1024;
+    /**
+     * Read-only methods, which may be retried and hedged.
+     */
+    private static final Set<String> IDEMPOTENT_METHODS = new HashSet<>(Arrays.asList(
+            "SearchSubtitles", "SearchMoviesOnIMDB", "NoOperation", "ServerInfo", "GetSubLanguages"));
+    private static final long RETRY_BASE_BACKOFF_MILLIS = 500;
+    private static final long RETRY_MAX_BACKOFF_MILLIS = 10000;
+    /**
+     * Calls of a method it takes before its 95th percentile is trusted as the hedging delay.
+     */
+    private static final int MIN_HEDGE_SAMPLES = 20;
 
     XmlRpcClientConfigImpl xmlRpcClientConfig;
     XmlRpcClient xmlRpcClient;
-    String strToken = "";
-    String fileHash = "";
-    File movie;
+    XmlRpcClient searchClient;
+    volatile String strToken = "";
     FilenameFilter fileNameFilter;
     ArrayList movieFileExtensions;
+    volatile HashCache hashCache = new HashCache();
+    volatile int maxQueriesPerCall = 20;
+    volatile SearchCache searchCache;
+    final ClientSettings settings;
+    MultiThreadedHttpConnectionManager connectionManager;
+    RequestScheduler scheduler;
+    volatile SessionManager sessionManager;
+    final Executor executor;
+    private final ExecutorService ownExecutor;
+    final Metrics metrics;
+    CircuitBreaker circuitBreaker;
+    /**
+     * Runs the attempts of calls that have a deadline or may be hedged.
+     */
+    private ExecutorService callExecutor;
+    /**
+     * Identical searches and downloads that are in progress at the same time share one call.
+     */
+    private final SingleFlight<SearchRequest, SearchResponse> searchFlights = new SingleFlight<>();
+    private final SingleFlight<Long, Path> downloadFlights = new SingleFlight<>();
+    /**
+     * Where the most recently used subtitle files were downloaded to, by {@code IDSubtitleFile}.
+     * Bounded, as a watching process downloads for as long as it runs.
+     */
+    private final Map<Long, Path> downloaded = Collections.synchronizedMap(new LinkedHashMap<Long, Path>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Path> eldest) {
+            return size() > MAX_DOWNLOADED_SOURCES;
+        }
+    });
 
 
     public OpenSubtitle() {
+        this(new ClientSettings());
+    }
+
+    public OpenSubtitle(ClientSettings settings) {
+        this.settings = settings;
+        metrics = settings.getMetrics() != null ? settings.getMetrics() : new Metrics();
+        metrics.gauge("hash.cache.hits", () -> hashCache.getHits());
+        metrics.gauge("hash.cache.misses", () -> hashCache.getMisses());
+        metrics.gauge("search.coalesced", searchFlights::getJoined);
+        metrics.gauge("download.coalesced", downloadFlights::getJoined);
         xmlRpcClientConfig = new XmlRpcClientConfigImpl();
+        xmlRpcClientConfig.setConnectionTimeout(settings.getConnectTimeoutMillis());
+        xmlRpcClientConfig.setReplyTimeout(settings.getReadTimeoutMillis());
+        // only the pooled transport compresses the body when asked to
+        xmlRpcClientConfig.setGzipCompressing(settings.isGzipRequests() && settings.getTransport() == ClientSettings.Transport.POOLED);
+        xmlRpcClientConfig.setGzipRequesting(settings.isGzipResponses());
         xmlRpcClient = new XmlRpcClient();
+        searchClient = new XmlRpcClient();
+        searchClient.setTypeFactory(new SearchResponseTypeFactory(searchClient));
+        if (settings.getExecutor() != null) {
+            executor = settings.getExecutor();
+            ownExecutor = null;
+        } else {
+            ownExecutor = newDefaultExecutor(Math.max(4, 2 * settings.getMaxConnections()));
+            executor = ownExecutor;
+        }
+        if (settings.getRequestsPerSecond() > 0) {
+            scheduler = new RequestScheduler(settings.getRequestsPerSecond(), settings.getBurst());
+        }
+        if (settings.getCircuitBreakerFailures() > 0) {
+            circuitBreaker = new CircuitBreaker(settings.getCircuitBreakerFailures());
+        }
+        if (settings.getCallTimeoutMillis() > 0 || settings.isHedgeRequests()) {
+            AtomicInteger threadCount = new AtomicInteger();
+            callExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "opensubtitles-call-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (settings.getTransport() == ClientSettings.Transport.POOLED) {
+            connectionManager = new MultiThreadedHttpConnectionManager();
+            connectionManager.getParams().setDefaultMaxConnectionsPerHost(settings.getMaxConnections());
+            connectionManager.getParams().setMaxTotalConnections(settings.getMaxConnections());
+            HttpClient httpClient = new HttpClient(connectionManager);
+            xmlRpcClient.setTransportFactory(new PooledTransportFactory(xmlRpcClient, httpClient, metrics));
+            searchClient.setTransportFactory(new PooledTransportFactory(searchClient, httpClient, metrics));
+        }
         movieFileExtensions = new ArrayList();
         String movieExtensionArray[] = MOVIE_EXTENSIONS.split(",");
         for (String extn : movieExtensionArray) {
@@ -63,8 +194,9 @@ public class OpenSubtitle {
 
 
         try {
-            xmlRpcClientConfig.setServerURL(new URL(OPEN_SUBTITLES_SERVER));
+            xmlRpcClientConfig.setServerURL(new URL(settings.getServerUrl()));
             xmlRpcClient.setConfig(xmlRpcClientConfig);
+            searchClient.setConfig(xmlRpcClientConfig);
         } catch (MalformedURLException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -74,7 +206,7 @@ public class OpenSubtitle {
 
     public void ServerInfo() throws XmlRpcException {
         HashMap<?, ?> retVal;
-        retVal = (HashMap) xmlRpcClient.execute("ServerInfo", (Object[]) null);
+        retVal = (HashMap) execute(xmlRpcClient, "ServerInfo", (Object[]) null);
         System.out.println("ServerInfo" + retVal.toString());
     }
 
@@ -85,7 +217,7 @@ public class OpenSubtitle {
         List params = new ArrayList();
         params.add(strToken);
         params.add(moviename);
-        retVal = (HashMap) xmlRpcClient.execute("SearchMoviesOnIMDB", params);
+        retVal = (HashMap) execute(xmlRpcClient, "SearchMoviesOnIMDB", params);
 //        System.out.println("ServerInfo"+retVal.toString());
         if (retVal.get("data") instanceof Object[]) {
             Object[] data = (Object[]) retVal.get("data");
@@ -100,80 +232,60 @@ public class OpenSubtitle {
         return infos;
     }
 
-    public List<SubtitleInfo> getMovieSubsByName(String moviename, String limit, String language) throws XmlRpcException {
-
-        List<SubtitleInfo> infos = new ArrayList<>();
-        HashMap<?, ?> retVal;
-        List params = new ArrayList();
-        params.add(strToken);
-        HashMap<String, Object> query = new HashMap<>();
-        query.put("query", moviename);
-        query.put("sublanguageid", language);
-        HashMap<String, Object> query2 = new HashMap<>();
-        query2.put("limit", limit);
-        Object[] paramsArray = new Object[]{strToken, new Object[]{query}, query2};
-        retVal = (HashMap) xmlRpcClient.execute("SearchSubtitles", paramsArray);
-        System.out.println("Status code is " + retVal.get("status"));
+    /**
+     * Looks a title up on IMDb through SearchMoviesOnIMDB.
+     *
+     * @return the IMDb ids without the {@code tt} prefix mapped to their titles, such as
+     * {@code The Matrix (1999)}, best match first
+     */
+    public Map<String, String> findImdbIds(String title) throws XmlRpcException {
+        HashMap<?, ?> retVal = (HashMap<?, ?>) execute(xmlRpcClient, "SearchMoviesOnIMDB", new Object[]{strToken, title});
+        checkStatus("SearchMoviesOnIMDB", retVal);
+        Map<String, String> ids = new LinkedHashMap<>();
         if (retVal.get("data") instanceof Object[]) {
-            Object[] data = (Object[]) retVal.get("data");
-            for (int i = 0; i < data.length; i++) {
-                SubtitleInfo info = new SubtitleInfo((HashMap<?, ?>) data[i]);
-                System.out.println("Id is " + info.getIDMovieImdb());
-                System.out.println("title is " + info.getMovieName());
-                System.out.println("Link is " + info.getSubDownloadLink());
-                System.out.println("Language is " + info.getLanguageName());
-                System.out.println("IMDB rating is " + info.getMovieImdbRating());
-                System.out.println("Year is " + info.getMovieYear());
-                System.out.println("Sub file name " + info.getSubFileName());
-                System.out.println("Date is " + info.getSubAddDate());
-                System.out.println("Rating is " + info.getSubRating());
-                System.out.println("Downloads is " + info.getSubDownloadsCnt());
-                System.out.println("Actual CD name " + info.getSubActualCD());
-                System.out.println("Bad is " + info.getSubBad());
-                infos.add(info);
+            for (Object result : (Object[]) retVal.get("data")) {
+                if (result instanceof Map && ((Map<?, ?>) result).get("id") != null) {
+                    Map<?, ?> movie = (Map<?, ?>) result;
+                    ids.put(movie.get("id").toString(), String.valueOf(movie.get("title")));
+                }
             }
         }
-        System.out.println("Total subs length is " + ((Object[]) retVal.get("data")).length);
-        return infos;
+        return ids;
     }
 
-    public List<SubtitleInfo> getTvSeriesSubs(String TvseriesName, String season, String episode, String limit, String language) throws XmlRpcException {
+    public List<SubtitleInfo> getMovieSubsByName(String moviename, String limit, String language) throws XmlRpcException {
 
-        List<SubtitleInfo> infos = new ArrayList<>();
-        HashMap<?, ?> retVal;
-        List params = new ArrayList();
-        params.add(strToken);
-        HashMap<String, Object> query = new HashMap<>();
-        query.put("query", TvseriesName);
-        query.put("season", season);
-        query.put("episode", episode);
-        query.put("sublanguageid", language);
-        HashMap<String, Object> query2 = new HashMap<>();
-        query2.put("limit", limit);
-        Object[] paramsArray = new Object[]{strToken, new Object[]{query}, query2};
-        retVal = (HashMap) xmlRpcClient.execute("SearchSubtitles", paramsArray);
-//        System.out.println("Status code is " + retVal.get("status"));
-        if (retVal.get("data") instanceof Object[]) {
-            Object[] data = (Object[]) retVal.get("data");
-            for (int i = 0; i < data.length; i++) {
-                SubtitleInfo info = new SubtitleInfo((HashMap<?, ?>) data[i]);
-//                System.out.println("Id is " + info.IDMovieImdb);
-//                System.out.println("title is " + info.getMovieName());
-//                System.out.println(info.getSubDownloadLink());
-                infos.add(info);
-            }
+        List<SubtitleInfo> infos = search(SearchRequest.byName(moviename, language).withLimit(Integer.parseInt(limit))).toSubtitleInfos();
+        for (SubtitleInfo info : infos) {
+            System.out.println("Id is " + info.getIDMovieImdb());
+            System.out.println("title is " + info.getMovieName());
+            System.out.println("Link is " + info.getSubDownloadLink());
+            System.out.println("Language is " + info.getLanguageName());
+            System.out.println("IMDB rating is " + info.getMovieImdbRating());
+            System.out.println("Year is " + info.getMovieYear());
+            System.out.println("Sub file name " + info.getSubFileName());
+            System.out.println("Date is " + info.getSubAddDate());
+            System.out.println("Rating is " + info.getSubRating());
+            System.out.println("Downloads is " + info.getSubDownloadsCnt());
+            System.out.println("Actual CD name " + info.getSubActualCD());
+            System.out.println("Bad is " + info.getSubBad());
         }
-//        System.out.println("Total subs length is " + ((Object[]) retVal.get("data")).length);
+        System.out.println("Total subs length is " + infos.size());
         return infos;
     }
 
+    public List<SubtitleInfo> getTvSeriesSubs(String TvseriesName, String season, String episode, String limit, String language) throws XmlRpcException {
+        SearchRequest request = SearchRequest.byEpisode(TvseriesName, season, episode, language).withLimit(Integer.parseInt(limit));
+        return search(request).toSubtitleInfos();
+    }
+
     public void getIMDBmovieDetails(String imdbId) throws XmlRpcException {
 
         HashMap<?, ?> retVal;
         List params = new ArrayList();
         params.add(strToken);
         params.add(imdbId);
-        retVal = (HashMap) xmlRpcClient.execute("SearchMoviesOnIMDB", params);
+        retVal = (HashMap) execute(xmlRpcClient, "SearchMoviesOnIMDB", params);
         if (retVal.get("data") instanceof Object[]) {
             Object[] data = (Object[]) retVal.get("data");
             for (int i = 0; i < data.length; i++) {
@@ -196,7 +308,7 @@ public class OpenSubtitle {
 
     public void getSubLanguages() throws XmlRpcException {
         HashMap<?, ?> retVal;
-        retVal = (HashMap) xmlRpcClient.execute("GetSubLanguages", (Object[]) null);
+        retVal = (HashMap) execute(xmlRpcClient, "GetSubLanguages", (Object[]) null);
 //        System.out.println("ServerInfo"+retVal.toString());
         if (retVal.get("data") instanceof Object[]) {
             Object[] data = (Object[]) retVal.get("data");
@@ -216,7 +328,7 @@ public class OpenSubtitle {
         params.add(password != null ? password : "");
         params.add("eng");
         params.add("moviejukebox 1.0.15");
-        retVal = (HashMap) xmlRpcClient.execute("LogIn", params);
+        retVal = (HashMap) execute(xmlRpcClient, "LogIn", params);
         strToken = (String) retVal.get("token");
         return strToken;
 
@@ -226,140 +338,798 @@ public class OpenSubtitle {
         List params = new ArrayList();
         params.add(strToken);
         try {
-            xmlRpcClient.execute("LogOut", params);
+            execute(xmlRpcClient, "LogOut", params);
         } catch (XmlRpcException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
         }
     }
 
-    public void computeHash(String filePath) {
+    /**
+     * Makes an API call, see {@link #call(XmlRpcClient, String, Object[])}. When a
+     * {@link SessionManager} is set and the server rejects the token passed as the first
+     * parameter, the call is repeated once with a new session.
+     */
+    private Object execute(XmlRpcClient client, String method, Object[] params) throws XmlRpcException {
+        Object result = call(client, method, params);
+        if (sessionManager != null && !"LogIn".equals(method) && isSessionRejected(result)
+                && params != null && params.length > 0 && params[0] instanceof String) {
+            metrics.increment("xmlrpc.sessionRenewals");
+            Object[] retry = params.clone();
+            retry[0] = sessionManager.renew((String) params[0]);
+            result = call(client, method, retry);
+        }
+        if (sessionManager != null) {
+            sessionManager.touch();
+        }
+        return result;
+    }
+
+    /**
+     * Makes an API call once the {@link CircuitBreaker} lets it through. Read-only calls that
+     * fail with a connection problem, a timeout or a server error are retried with backoff up to
+     * {@link ClientSettings#setMaxRetries(int) maxRetries} times.
+     */
+    private Object call(XmlRpcClient client, String method, Object[] params) throws XmlRpcException {
+        boolean idempotent = IDEMPOTENT_METHODS.contains(method);
+        int maxRetries = idempotent ? settings.getMaxRetries() : 0;
+        for (int attempt = 0; ; attempt++) {
+            if (circuitBreaker != null) {
+                try {
+                    circuitBreaker.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new XmlRpcException("Interrupted while the API is paused", e);
+                }
+            }
+            Object result = null;
+            XmlRpcException failure = null;
+            // stays set when something unexpected is thrown
+            boolean failed = true;
+            boolean interrupted = false;
+            try {
+                result = executeOnce(client, method, params, idempotent && settings.isHedgeRequests());
+                failed = isServerError(result);
+            } catch (XmlRpcException e) {
+                failure = e;
+                failed = isRetryable(e);
+                interrupted = e.getCause() instanceof InterruptedException;
+            } finally {
+                if (circuitBreaker != null) {
+                    // a probe that ends any other way must not leave the breaker half open
+                    if (failed || interrupted) {
+                        circuitBreaker.failed();
+                    } else {
+                        circuitBreaker.succeeded();
+                    }
+                }
+            }
+            if (!failed || attempt == maxRetries) {
+                if (failure != null) {
+                    throw failure;
+                }
+                return result;
+            }
+            metrics.increment("xmlrpc.retries");
+            try {
+                Thread.sleep(retryBackoffMillis(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XmlRpcException("Interrupted while waiting to retry " + method, e);
+            }
+        }
+    }
+
+    /**
+     * Makes one HTTP exchange of a call, once the {@link RequestScheduler} granted it. With a
+     * {@link ClientSettings#setCallTimeoutMillis(long) call timeout} it is abandoned at the
+     * deadline. With {@code hedge} a second copy is sent once the first took longer than 95% of
+     * the earlier calls of the method, if the request quota has a token to spare, and the first
+     * answer wins. Both timers start here, so waiting for the quota never counts against them.
+     */
+    private Object attempt(XmlRpcClient client, String method, Object[] params, boolean hedge) throws XmlRpcException {
+        long timeoutMillis = settings.getCallTimeoutMillis();
+        long hedgeDelayMicros = hedge ? hedgeDelayMicros(method) : -1;
+        if (timeoutMillis <= 0 && hedgeDelayMicros < 0) {
+            return timedExecute(client, method, params);
+        }
+
+        Callable<Object> call = () -> timedExecute(client, method, params);
+        CompletionService<Object> attempts = new ExecutorCompletionService<>(callExecutor);
+        List<Future<Object>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        futures.add(attempts.submit(call));
+        boolean hedged = hedgeDelayMicros < 0;
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                long waitNanos = timeoutMillis > 0 ? start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) - now : Long.MAX_VALUE;
+                if (!hedged) {
+                    waitNanos = Math.min(waitNanos, start + TimeUnit.MICROSECONDS.toNanos(hedgeDelayMicros) - now);
+                }
+                Future<Object> done = waitNanos == Long.MAX_VALUE ? attempts.take() : attempts.poll(Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    now = System.nanoTime();
+                    if (!hedged && now - start >= TimeUnit.MICROSECONDS.toNanos(hedgeDelayMicros)) {
+                        hedged = true;
+                        // the copy is a request of its own, it is not worth waiting for the quota
+                        if (scheduler == null || scheduler.tryAcquire()) {
+                            metrics.increment("xmlrpc.hedges");
+                            futures.add(attempts.submit(call));
+                        }
+                    } else if (timeoutMillis > 0 && now - start >= TimeUnit.MILLISECONDS.toNanos(timeoutMillis)) {
+                        throw new XmlRpcException("No answer to " + method + " within " + timeoutMillis + " ms",
+                                new SocketTimeoutException("Call deadline exceeded"));
+                    }
+                    continue;
+                }
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    futures.remove(done);
+                    // otherwise the other copy may still answer
+                    if (!hedged || futures.isEmpty()) {
+                        throw e.getCause() instanceof XmlRpcException ? (XmlRpcException) e.getCause()
+                                : new XmlRpcException(e.getCause().getMessage(), e.getCause());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XmlRpcException("Interrupted while waiting for " + method, e);
+        } finally {
+            for (Future<Object> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @return the 95th percentile of the method's latency, or -1 while there are too few samples
+     */
+    private long hedgeDelayMicros(String method) {
+        Histogram latency = metrics.histogram("xmlrpc." + method + ".micros");
+        return latency.getCount() >= MIN_HEDGE_SAMPLES ? latency.getPercentile(95) : -1;
+    }
+
+    /**
+     * Connection problems, timeouts and server errors. Throttling has already been retried by the
+     * {@link RequestScheduler}, if there is one.
+     */
+    private boolean isRetryable(XmlRpcException e) {
+        if (e instanceof XmlRpcHttpTransportException) {
+            int status = ((XmlRpcHttpTransportException) e).getStatusCode();
+            return status == 408 || (status >= 500 && !(scheduler != null && RequestScheduler.isThrottled(Integer.toString(status))));
+        }
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isServerError(Object result) {
+        Object status = result instanceof Map ? ((Map<?, ?>) result).get("status") : null;
+        return status instanceof String && ((String) status).startsWith("5")
+                && !(scheduler != null && RequestScheduler.isThrottled((String) status));
+    }
+
+    /**
+     * Exponential backoff with equal jitter, see {@link RequestScheduler}.
+     */
+    private static long retryBackoffMillis(int attempt) {
+        long ceiling = Math.min(RETRY_MAX_BACKOFF_MILLIS, RETRY_BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    private Object executeOnce(XmlRpcClient client, String method, Object[] params, boolean hedge) throws XmlRpcException {
+        if (scheduler == null) {
+            return attempt(client, method, params, hedge);
+        }
+        int[] attempts = new int[1];
+        try {
+            return scheduler.execute(() -> {
+                attempts[0]++;
+                return attempt(client, method, params, hedge);
+            });
+        } finally {
+            if (attempts[0] > 1) {
+                metrics.add("xmlrpc.retries", attempts[0] - 1);
+            }
+        }
+    }
+
+    /**
+     * Makes a single call, timing it without the wait for the request quota.
+     */
+    private Object timedExecute(XmlRpcClient client, String method, Object[] params) throws XmlRpcException {
+        long start = System.nanoTime();
+        try {
+            return client.execute(method, params);
+        } catch (XmlRpcException | RuntimeException e) {
+            metrics.increment("xmlrpc." + method + ".errors");
+            throw e;
+        } finally {
+            metrics.recordSince("xmlrpc." + method + ".micros", start);
+        }
+    }
+
+    /**
+     * Fails unless the server answered {@code 200 OK}. Errors such as {@code 407 Download limit
+     * reached} or a {@code 503} that outlasted the retries come back as a status, not a fault.
+     */
+    private static void checkStatus(String method, Map<?, ?> result) throws XmlRpcException {
+        Object status = result.get("status");
+        if (!(status instanceof String) || !((String) status).startsWith("200")) {
+            throw new XmlRpcException(method + " failed: " + status);
+        }
+    }
+
+    /**
+     * 401 is returned for a missing token, 406 for one the server no longer knows.
+     */
+    private static boolean isSessionRejected(Object result) {
+        Object status = result instanceof Map ? ((Map<?, ?>) result).get("status") : null;
+        return status instanceof String && (((String) status).startsWith("401") || ((String) status).startsWith("406"));
+    }
+
+    private Object execute(XmlRpcClient client, String method, List<?> params) throws XmlRpcException {
+        return execute(client, method, params.toArray());
+    }
+
+    /**
+     * Pings the server so the session does not time out.
+     *
+     * @return whether the session is still valid
+     */
+    public boolean noOperation() throws XmlRpcException {
+        HashMap<?, ?> retVal = (HashMap) execute(xmlRpcClient, "NoOperation", new Object[]{strToken});
+        return !isSessionRejected(retVal);
+    }
+
+    public SessionManager getSessionManager() {
+        return sessionManager;
+    }
+
+    /**
+     * Called by {@link SessionManager#open()}.
+     */
+    void setSessionManager(SessionManager sessionManager) {
+        this.sessionManager = sessionManager;
+    }
+
+    public RequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @return the breaker that pauses calls while the API is down, or {@code null} if disabled
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @return the metrics of this client, see {@link Metrics} for what is recorded
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Closes the pooled connections, if any, and the default executor. The client can not be used
+     * afterwards.
+     */
+    public void close() {
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+        if (callExecutor != null) {
+            callExecutor.shutdownNow();
+        }
+        if (connectionManager != null) {
+            connectionManager.shutdown();
+        }
+    }
+
+    /**
+     * Virtual threads when the JDK has them, otherwise a fixed pool of daemon threads. The
+     * blocking calls are throttled by the scheduler and the connection pool either way.
+     */
+    private static ExecutorService newDefaultExecutor(int poolSize) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadCount = new AtomicInteger();
+            return Executors.newFixedThreadPool(poolSize, runnable -> {
+                Thread thread = new Thread(runnable, "opensubtitles-async-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Hashes a file on the executor, using the {@link HashCache}.
+     */
+    public CompletableFuture<String> hashAsync(Path file) {
+        return supplyAsync(() -> hash(file));
+    }
+
+    /**
+     * @return the movie hash of the file, from the {@link HashCache} if it has it
+     */
+    public String hash(Path file) throws IOException {
+        long start = System.nanoTime();
         try {
-            movie = new File(filePath);
-            fileHash = OpenSubtitleHasher.computeHash(movie);
-//            System.out.println(fileHash);
+            return hashCache.computeHash(file.toFile());
+        } finally {
+            metrics.recordSince("hash.micros", start);
+        }
+    }
+
+    public CompletableFuture<SearchResponse> searchAsync(SearchRequest request) {
+        return supplyAsync(() -> search(request));
+    }
+
+    public CompletableFuture<List<SearchResponse>> searchAllAsync(List<SearchRequest> requests) {
+        return supplyAsync(() -> searchAll(requests));
+    }
+
+    /**
+     * Hashes a file and searches by its hash, the async form of {@link #Search(String, String)}.
+     */
+    public CompletableFuture<SearchResponse> searchAsync(Path file, String language) {
+        return hashAsync(file).thenCompose(hash -> searchAsync(SearchRequest.byHash(hash, language)));
+    }
+
+    /**
+     * @return a future of {@code target}, completed once the subtitle is in place
+     */
+    public CompletableFuture<Path> downloadAsync(CompactSubtitleInfo subtitle, Path target) {
+        return supplyAsync(() -> {
+            download(subtitle, target);
+            return target;
+        });
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    private interface BlockingCall<T> {
+        T call() throws Exception;
+    }
+
+    /**
+     * Runs {@code call} on the executor with the {@link RequestScheduler.Priority} of the calling
+     * thread, completing the future exceptionally with what it throws.
+     */
+    private <T> CompletableFuture<T> supplyAsync(BlockingCall<T> call) {
+        RequestScheduler.Priority priority = RequestScheduler.getThreadPriority();
+        return CompletableFuture.supplyAsync(() -> {
+            RequestScheduler.Priority previous = RequestScheduler.getThreadPriority();
+            RequestScheduler.setThreadPriority(priority);
+            try {
+                return call.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                RequestScheduler.setThreadPriority(previous);
+            }
+        }, executor);
+    }
+
+    /**
+     * @return the movie hash of the file, or {@code null} if it could not be read
+     */
+    public String computeHash(String filePath) {
+        try {
+            return hash(Paths.get(filePath));
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
+            return null;
         }
+    }
 
+    public HashCache getHashCache() {
+        return hashCache;
+    }
+
+    public void setHashCache(HashCache hashCache) {
+        this.hashCache = hashCache;
+    }
+
+    public SearchCache getSearchCache() {
+        return searchCache;
+    }
+
+    /**
+     * Sets the cache for SearchSubtitles results, or {@code null} to always ask the server.
+     */
+    public void setSearchCache(SearchCache searchCache) {
+        this.searchCache = searchCache;
     }
 
     public List<SubtitleInfo> Search(String filePath, String language) throws XmlRpcException {
-        computeHash(filePath);
-        List<SubtitleInfo> infos = new ArrayList<>();
-        Map<String, Object> parameterMap = new HashMap();
-//        System.out.println(fileHash);
-//        System.out.println(movie.length());
-        HashMap<?, ?> retVal;
-        parameterMap.put("sublanguageid", language);
-        parameterMap.put("moviehash", fileHash);
-        String fileName = movie.getName();
-        fileName = fileName.substring(0, fileName.length() - 4);
-//        System.out.println(fileName);
-        Object[] paramsArray = new Object[]{strToken, new Object[]{parameterMap}};
-        retVal = (HashMap<?, ?>) xmlRpcClient.execute("SearchSubtitles", paramsArray);
-//        System.out.println("Status code is " + retVal.get("status"));
+        String movieHash = computeHash(filePath);
+        return movieHash != null ? searchByHash(movieHash, language) : new ArrayList<>();
+    }
+
+    public List<SubtitleInfo> searchByHash(String movieHash, String language) throws XmlRpcException {
+        return searchByHashes(Collections.singletonList(movieHash), language).get(movieHash);
+    }
+
+    /**
+     * Hashes all files and looks them up with {@link #searchByHashes(Collection, String)}.
+     *
+     * @return the results for every file path, empty when nothing matched
+     */
+    public Map<String, List<SubtitleInfo>> Search(List<String> filePaths, String language) throws IOException, XmlRpcException {
+        Map<String, String> hashes = new LinkedHashMap<>();
+        for (String filePath : filePaths) {
+            hashes.put(filePath, hash(Paths.get(filePath)));
+        }
+        Map<String, List<SubtitleInfo>> byHash = searchByHashes(hashes.values(), language);
+        Map<String, List<SubtitleInfo>> byPath = new LinkedHashMap<>();
+        hashes.forEach((filePath, hash) -> byPath.put(filePath, byHash.get(hash)));
+        return byPath;
+    }
+
+    /**
+     * Looks up many movie hashes with as few SearchSubtitles calls as possible, see
+     * {@link #searchAll(List)}.
+     *
+     * @return the results for every requested hash, empty when nothing matched
+     */
+    public Map<String, List<SubtitleInfo>> searchByHashes(Collection<String> movieHashes, String language) throws XmlRpcException {
+        List<String> hashes = new ArrayList<>(movieHashes);
+        List<SearchRequest> requests = new ArrayList<>(hashes.size());
+        for (String movieHash : hashes) {
+            requests.add(SearchRequest.byHash(movieHash, language));
+        }
+        List<SearchResponse> responses = searchAll(requests);
+        Map<String, List<SubtitleInfo>> results = new LinkedHashMap<>();
+        for (int i = 0; i < hashes.size(); i++) {
+            results.put(hashes.get(i), responses.get(i).toSubtitleInfos());
+        }
+        return results;
+    }
+
+    public SearchResponse search(SearchRequest request) throws XmlRpcException {
+        return searchAll(Collections.singletonList(request)).get(0);
+    }
+
+    /**
+     * Runs many searches, answering what it can from the {@link SearchCache}. Hash searches are
+     * packed into as few calls as possible: each call carries up to
+     * {@link #setMaxQueriesPerCall(int) maxQueriesPerCall} query structs, shares the server's
+     * limit of {@value SearchRequest#MAX_LIMIT} results, and the results are mapped back to their
+     * query by {@code MovieHash}. Other searches take one call each. A search that another thread
+     * is already making waits for that call instead of making its own.
+     *
+     * @return one response per request, in the same order
+     */
+    public List<SearchResponse> searchAll(List<SearchRequest> requests) throws XmlRpcException {
+        Map<SearchRequest, SearchResponse> responses = new HashMap<>();
+        Map<String, List<SearchRequest>> hashSearchesByLanguage = new LinkedHashMap<>();
+        Map<SearchRequest, SingleFlight<SearchRequest, SearchResponse>.Flight> leading = new HashMap<>();
+        Map<SearchRequest, SingleFlight<SearchRequest, SearchResponse>.Flight> following = new HashMap<>();
+        try {
+            for (SearchRequest request : requests) {
+                if (responses.containsKey(request)) {
+                    continue;
+                }
+                List<CompactSubtitleInfo> cached = searchCache != null ? searchCache.get(cacheKey(request)) : null;
+                if (searchCache != null) {
+                    metrics.increment(cached != null ? "search.cache.hits" : "search.cache.misses");
+                }
+                if (cached != null) {
+                    responses.put(request, new SearchResponse(request, cached, true));
+                } else if (request.isHashOnly()) {
+                    responses.put(request, null);
+                    SingleFlight<SearchRequest, SearchResponse>.Flight flight = searchFlights.join(request);
+                    if (flight.isLeader()) {
+                        leading.put(request, flight);
+                        hashSearchesByLanguage.computeIfAbsent(request.getLanguage(), language -> new ArrayList<>()).add(request);
+                    } else {
+                        following.put(request, flight);
+                    }
+                } else {
+                    responses.put(request, searchFlights.execute(request, XmlRpcException.class,
+                            () -> respond(request, callSearchSubtitles(Collections.singletonList(request), request.getLimit()))));
+                }
+            }
+
+            for (List<SearchRequest> hashSearches : hashSearchesByLanguage.values()) {
+                for (int from = 0; from < hashSearches.size(); from += maxQueriesPerCall) {
+                    List<SearchRequest> chunk = hashSearches.subList(from, Math.min(from + maxQueriesPerCall, hashSearches.size()));
+                    Map<String, List<CompactSubtitleInfo>> byHash = new HashMap<>();
+                    for (SearchRequest request : chunk) {
+                        byHash.put(request.getMovieHash(), new ArrayList<>());
+                    }
+                    for (CompactSubtitleInfo info : callSearchSubtitles(chunk, SearchRequest.MAX_LIMIT)) {
+                        List<CompactSubtitleInfo> infos = info.getMovieHash() != null ? byHash.get(info.getMovieHash().toLowerCase()) : null;
+                        if (infos != null) {
+                            infos.add(info);
+                        }
+                    }
+                    for (SearchRequest request : chunk) {
+                        SearchResponse response = respond(request, byHash.get(request.getMovieHash()));
+                        responses.put(request, response);
+                        leading.get(request).complete(response);
+                    }
+                }
+            }
+        } catch (XmlRpcException | RuntimeException | Error e) {
+            // the threads waiting for these searches fail with us
+            for (SingleFlight<SearchRequest, SearchResponse>.Flight flight : leading.values()) {
+                flight.fail(e);
+            }
+            throw e;
+        }
+        for (Map.Entry<SearchRequest, SingleFlight<SearchRequest, SearchResponse>.Flight> flight : following.entrySet()) {
+            responses.put(flight.getKey(), flight.getValue().await(XmlRpcException.class));
+        }
+
+        List<SearchResponse> ordered = new ArrayList<>(requests.size());
+        for (SearchRequest request : requests) {
+            ordered.add(responses.get(request));
+        }
+        return ordered;
+    }
+
+    /**
+     * Caches and wraps the results of a call that succeeded.
+     */
+    private SearchResponse respond(SearchRequest request, List<CompactSubtitleInfo> results) {
+        if (searchCache != null) {
+            searchCache.put(cacheKey(request), results);
+        }
+        return new SearchResponse(request, results, false);
+    }
+
+    private List<CompactSubtitleInfo> callSearchSubtitles(List<SearchRequest> requests, int limit) throws XmlRpcException {
+        Object[] queries = new Object[requests.size()];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = new HashMap<String, Object>(requests.get(i).getQuery());
+        }
+        HashMap<String, Object> options = new HashMap<>();
+        options.put("limit", limit);
+        Object[] paramsArray = new Object[]{strToken, queries, options};
+        HashMap<?, ?> retVal = (HashMap<?, ?>) execute(searchClient, "SearchSubtitles", paramsArray);
+        // an error must not end up in the search cache as an empty result
+        checkStatus("SearchSubtitles", retVal);
+        List<CompactSubtitleInfo> results = new ArrayList<>();
         if (retVal.get("data") instanceof Object[]) {
-            Object[] data = (Object[]) retVal.get("data");
-            for (int i = 0; i < data.length; i++) {
-                SubtitleInfo info = new SubtitleInfo((HashMap<?, ?>) data[i]);
-//                System.out.println("Id is " + info.getIDMovieImdb());
-//                System.out.println("title is " + info.getMovieName());
-//                System.out.println("Hash is " + info.getMovieHash());
-//                System.out.println("Link is " + info.getSubDownloadLink());
-//                System.out.println("Language is " + info.getLanguageName());
-//                System.out.println("IMDB rating is " + info.getMovieImdbRating());
-//                System.out.println("Year is " + info.getMovieYear());
-//                System.out.println("Sub file name " + info.getSubFileName());
-//                System.out.println("Date is " + info.getSubAddDate());
-//                System.out.println("Rating is " + info.getSubRating());
-//                System.out.println("Downloads is " + info.getSubDownloadsCnt());
-//                System.out.println("Actual CD name " + info.getSubActualCD());
-//                System.out.println("Bad is " + info.getSubBad());
-                infos.add(info);
+            for (Object result : (Object[]) retVal.get("data")) {
+                results.add(toCompactSubtitleInfo(result));
             }
         }
-//        System.out.println("Total subs length is " + ((Object[]) retVal.get("data")).length);
+        metrics.record("search.results", results.size());
+        return results;
+    }
 
-        return infos;
+    /**
+     * Converts an entry of a SearchSubtitles {@code data} array, which {@link SearchResponseTypeFactory}
+     * has usually parsed into a {@link CompactSubtitleInfo} already.
+     */
+    private static CompactSubtitleInfo toCompactSubtitleInfo(Object result) {
+        if (result instanceof CompactSubtitleInfo) {
+            return (CompactSubtitleInfo) result;
+        }
+        return CompactSubtitleInfo.from((Map<?, ?>) result);
     }
 
+    /**
+     * Hash searches are keyed without their limit, which is always the maximum.
+     */
+    private static String cacheKey(SearchRequest request) {
+        Map<String, Object> params = new HashMap<>(request.getQuery());
+        if (!request.isHashOnly()) {
+            params.put("limit", request.getLimit());
+        }
+        return SearchCache.key("SearchSubtitles", params);
+    }
 
-    public void downloadSubtitle(URL url, String filename) throws IOException {
+    public int getMaxQueriesPerCall() {
+        return maxQueriesPerCall;
+    }
 
-        URLConnection yc = url.openConnection();
-        BufferedReader in = new BufferedReader(new InputStreamReader(
-                yc.getInputStream()));
-        String inputLine, total = "";
-        while ((inputLine = in.readLine()) != null)
-            total += inputLine + "\n";
-        in.close();
-        BufferedWriter output = null;
+    /**
+     * Sets how many hashes {@link #searchByHashes(Collection, String)} packs into one call. The
+     * server returns at most 500 results per call, shared by all of its queries.
+     */
+    public void setMaxQueriesPerCall(int maxQueriesPerCall) {
+        this.maxQueriesPerCall = maxQueriesPerCall;
+    }
+
+
+    /**
+     * Downloads the subtitle of a search result to {@code target}, see
+     * {@link #downloadSubtitle(URL, String)}. A subtitle file that was downloaded recently in this
+     * run, or is being downloaded by another thread, is fetched only once and then hard linked,
+     * or copied where the file system cannot link, to every further target.
+     */
+    public void download(CompactSubtitleInfo subtitle, Path target) throws IOException {
+        URL url = new URL(subtitle.getSubDownloadLink());
+        long id = subtitle.getIDSubtitleFile();
+        if (id < 0) {
+            downloadSubtitle(url, target.toString());
+            return;
+        }
+        Path absolute = target.toAbsolutePath();
+        Path source = downloaded.get(id);
+        if (source == null || !Files.isRegularFile(source)) {
+            source = downloadFlights.execute(id, IOException.class, () -> {
+                downloadSubtitle(url, absolute.toString());
+                downloaded.put(id, absolute);
+                return absolute;
+            });
+        }
+        if (source.equals(absolute)) {
+            return;
+        }
         try {
-            File filSubtitleFile = new File(filename);
-            output = new BufferedWriter(new FileWriter(filSubtitleFile));
-            output.write(total);
-        } catch (IOException e) {
-            e.printStackTrace();
+            linkOrCopy(source, absolute);
+        } catch (NoSuchFileException e) {
+            // the earlier target was removed meanwhile
+            downloaded.remove(id, source);
+            downloadSubtitle(url, absolute.toString());
+        }
+    }
+
+    private void linkOrCopy(Path source, Path target) throws IOException {
+        Path partial = partialFile(target);
+        try {
+            try {
+                Files.createLink(partial, source);
+                metrics.increment("download.linked");
+            } catch (NoSuchFileException e) {
+                throw e;
+            } catch (UnsupportedOperationException | IOException e) {
+                Files.copy(source, partial);
+                metrics.increment("download.copied");
+            }
+            moveIntoPlace(partial, target);
         } finally {
-            if (output != null) {
-                output.close();
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    private static Path partialFile(Path target) {
+        return target.resolveSibling("." + target.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".part");
+    }
+
+    private static void moveIntoPlace(Path partial, Path target) throws IOException {
+        try {
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Streams the subtitle at {@code url} into {@code filename}. Gzip payloads, such as the
+     * {@code SubDownloadLink} of a search result, are decompressed on the fly. The data is written
+     * to a temporary file next to the target, which is renamed into place once complete.
+     * <p>
+     * Failed downloads are retried like searches, except when the server does not have the file.
+     */
+    public void downloadSubtitle(URL url, String filename) throws IOException {
+        Path target = Paths.get(filename).toAbsolutePath();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                downloadOnce(url, target);
+                return;
+            } catch (FileNotFoundException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= settings.getMaxRetries()) {
+                    throw e;
+                }
+            }
+            metrics.increment("download.retries");
+            try {
+                Thread.sleep(retryBackoffMillis(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting to retry " + url, e);
             }
         }
+    }
 
-        // Now that we have the URL, we can download the file. The file is in
-        // the GZIP format so we have to uncompress it.
-//        File filSubtitleFile = new File(filename);
-//
-//        HttpURLConnection httpConnection = null;
-//        FileOutputStream fileOutputStream = null;
-//        GZIPInputStream gzipInputStream = null;
-//
-//        try {
-//
-//            httpConnection = (HttpURLConnection)((url).openConnection());
-//            fileOutputStream = new FileOutputStream(filSubtitleFile);
-//            gzipInputStream = new GZIPInputStream(httpConnection.getInputStream());
-//
-//
-//
-//            Integer intLength = 0;
-//            byte[] bytBuffer = new byte[1024];
-//
-//            fileOutputStream.close();
-//            filSubtitleFile.delete();
-//            if (httpConnection.getHeaderField("Content-Disposition").isEmpty() == false) {
-//                filSubtitleFile = new File(filSubtitleFile.getPath());
-//            }
-//
-//            fileOutputStream.close();
-//            fileOutputStream = new FileOutputStream(filSubtitleFile);
-//            while ((intLength = gzipInputStream.read(bytBuffer)) > 0) {
-//                fileOutputStream.write(bytBuffer, 0, intLength);
-//            }
-//            httpConnection.disconnect();
-//
-//
-//
-//        } catch (Exception e) {
-//
-//        } finally {
-//            try {
-//                fileOutputStream.close();
-//            } catch (IOException e) {
-//                // TODO Auto-generated catch block
-//                e.printStackTrace();
-//            }
-//            try {
-//                gzipInputStream.close();
-//            } catch (IOException e) {
-//                // TODO Auto-generated catch block
-//                e.printStackTrace();
-//            }
-//        }
+    private void downloadOnce(URL url, Path target) throws IOException {
+        Path partial = partialFile(target);
+        long start = System.nanoTime();
+        try {
+            URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(settings.getConnectTimeoutMillis());
+            connection.setReadTimeout(settings.getReadTimeoutMillis());
+            CountingInputStream body = new CountingInputStream(connection.getInputStream());
+            try (ReadableByteChannel source = Channels.newChannel(openPayload(body));
+                 FileChannel output = FileChannel.open(partial, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long position = 0;
+                long transferred;
+                while ((transferred = output.transferFrom(source, position, DOWNLOAD_CHUNK_SIZE)) > 0) {
+                    position += transferred;
+                    if (settings.getCallTimeoutMillis() > 0
+                            && System.nanoTime() - start > TimeUnit.MILLISECONDS.toNanos(settings.getCallTimeoutMillis())) {
+                        throw new SocketTimeoutException("Download of " + url + " took longer than "
+                                + settings.getCallTimeoutMillis() + " ms");
+                    }
+                }
+                // a connection that closes early looks like the end of the body
+                long length = connection.getContentLengthLong();
+                if (length >= 0 && body.count < length) {
+                    throw new EOFException("Download of " + url + " ended after " + body.count + " of " + length + " bytes");
+                }
+                metrics.record("download.bytes", position);
+            }
+            moveIntoPlace(partial, target);
+            metrics.recordSince("download.micros", start);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    /**
+     * Returns the response body, unwrapping it when it starts with the gzip magic bytes.
+     */
+    private static InputStream openPayload(InputStream body) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(body, 2);
+        byte[] magic = new byte[2];
+        int read = 0;
+        int n;
+        while (read < magic.length && (n = in.read(magic, read, magic.length - read)) > 0) {
+            read += n;
+        }
+        in.unread(magic, 0, read);
+        if (read == 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+            return new GZIPInputStream(in, DOWNLOAD_CHUNK_SIZE);
+        }
+        return in;
+    }
+
+    /**
+     * Counts the bytes that came over the wire, before any unwrapping.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
 
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
 
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
     }
 //
 //    public void searchAndDownloadDirectory(File dir){
@@ -19,14 +19,21 @@ package Opensubs; /**
  */
 
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.LongBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * Hash code is based on Media Player Classic. In natural language it calculates: size + 64bit
@@ -40,6 +47,10 @@ public class OpenSubtitleHasher {
      */
     private static final int HASH_CHUNK_SIZE = 64 * 1024;
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<Context> CONTEXT = ThreadLocal.withInitial(Context::new);
+
 
     public static String computeHash(File file) throws IOException {
         long size = file.length();
@@ -51,38 +62,87 @@ public class OpenSubtitleHasher {
             long head = computeHashForChunk(fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, chunkSizeForFile));
             long tail = computeHashForChunk(fileChannel.map(FileChannel.MapMode.READ_ONLY, Math.max(size - HASH_CHUNK_SIZE, 0), chunkSizeForFile));
 
-            return String.format("%016x", size + head + tail);
+            return toHex(size + head + tail);
         } finally {
             fileChannel.close();
         }
     }
 
 
+    /**
+     * Reaches the tail chunk by skipping, which for many streams means reading everything in
+     * between; sources that can seek are better hashed with {@link #hash(PositionalReader)}.
+     */
     public static String computeHash(InputStream stream, long length) throws IOException {
+        return toHex(context().hash(stream, length));
+    }
 
-        int chunkSizeForFile = (int) Math.min(HASH_CHUNK_SIZE, length);
-
-        // buffer that will contain the head and the tail chunk, chunks will overlap if length is smaller than two chunks
-        byte[] chunkBytes = new byte[(int) Math.min(2 * HASH_CHUNK_SIZE, length)];
-
-        DataInputStream in = new DataInputStream(stream);
-
-        // first chunk
-        in.readFully(chunkBytes, 0, chunkSizeForFile);
-
-        long position = chunkSizeForFile;
-        long tailChunkPosition = length - chunkSizeForFile;
+    /**
+     * Computes the hash of {@code file} with the calling thread's {@link Context}.
+     */
+    public static long hash(Path file) throws IOException {
+        return context().hash(file);
+    }
 
-        // seek to position of the tail chunk, or not at all if length is smaller than two chunks
-        while (position < tailChunkPosition && (position += in.skip(tailChunkPosition - position)) >= 0) ;
+    /**
+     * Computes the hash of the data behind {@code reader}, reading only its first and last 64 KB,
+     * one after the other.
+     */
+    public static long hash(PositionalReader reader) throws IOException {
+        return context().hash(reader);
+    }
 
-        // second chunk, or the rest of the data if length is smaller than two chunks
-        in.readFully(chunkBytes, chunkSizeForFile, chunkBytes.length - chunkSizeForFile);
+    /**
+     * Like {@link #hash(PositionalReader)}, but when the reader allows concurrent reads the tail
+     * is read on {@code executor} while the calling thread reads the head, which halves the wait
+     * for remote sources.
+     */
+    public static long hash(PositionalReader reader, Executor executor) throws IOException {
+        long size = reader.size();
+        if (size <= HASH_CHUNK_SIZE || !reader.isConcurrent()) {
+            return context().hash(reader);
+        }
+        CompletableFuture<Long> tail = CompletableFuture.supplyAsync(() -> {
+            try {
+                return context().hashChunk(reader, size - HASH_CHUNK_SIZE, HASH_CHUNK_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+        long head;
+        try {
+            head = context().hashChunk(reader, 0, HASH_CHUNK_SIZE);
+        } catch (IOException e) {
+            tail.cancel(false);
+            throw e;
+        }
+        try {
+            return size + head + tail.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
 
-        long head = computeHashForChunk(ByteBuffer.wrap(chunkBytes, 0, chunkSizeForFile));
-        long tail = computeHashForChunk(ByteBuffer.wrap(chunkBytes, chunkBytes.length - chunkSizeForFile, chunkSizeForFile));
+    /**
+     * Returns the hasher context of the calling thread.
+     */
+    public static Context context() {
+        return CONTEXT.get();
+    }
 
-        return String.format("%016x", length + head + tail);
+    /**
+     * Formats a hash the way the OpenSubtitles API expects it: 16 lower case hex digits.
+     */
+    public static String toHex(long hash) {
+        char[] chars = new char[16];
+        for (int i = chars.length - 1; i >= 0; i--) {
+            chars[i] = HEX_DIGITS[(int) (hash & 0xf)];
+            hash >>>= 4;
+        }
+        return new String(chars);
     }
 
 
@@ -97,4 +157,103 @@ public class OpenSubtitleHasher {
 
         return hash;
     }
+
+    /**
+     * Reusable hashing state for one thread. Files are read with positional reads into a direct
+     * buffer that is kept between calls, so hashing does not map memory or allocate buffers.
+     * Instances are not thread-safe; use {@link #context()} to get the one for the current thread.
+     */
+    public static final class Context {
+
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private byte[] streamBytes;
+        private ByteBuffer streamBuffer;
+
+        public long hash(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return hash(channel);
+            }
+        }
+
+        public long hash(FileChannel channel) throws IOException {
+            long size = channel.size();
+            int chunkSizeForFile = (int) Math.min(HASH_CHUNK_SIZE, size);
+
+            long head = hashChunk(channel, 0, chunkSizeForFile);
+            // both chunks cover the whole file when it is no larger than one chunk
+            long tail = size <= HASH_CHUNK_SIZE ? head : hashChunk(channel, size - HASH_CHUNK_SIZE, chunkSizeForFile);
+
+            return size + head + tail;
+        }
+
+        public long hash(PositionalReader reader) throws IOException {
+            long size = reader.size();
+            int chunkSizeForFile = (int) Math.min(HASH_CHUNK_SIZE, size);
+
+            long head = hashChunk(reader, 0, chunkSizeForFile);
+            long tail = size <= HASH_CHUNK_SIZE ? head : hashChunk(reader, size - HASH_CHUNK_SIZE, chunkSizeForFile);
+
+            return size + head + tail;
+        }
+
+        public long hash(InputStream stream, long length) throws IOException {
+            int chunkSizeForFile = (int) Math.min(HASH_CHUNK_SIZE, length);
+            int bytesToRead = (int) Math.min(2 * HASH_CHUNK_SIZE, length);
+
+            if (streamBytes == null) {
+                streamBytes = new byte[2 * HASH_CHUNK_SIZE];
+                streamBuffer = ByteBuffer.wrap(streamBytes).order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            DataInputStream in = new DataInputStream(stream);
+
+            // first chunk
+            in.readFully(streamBytes, 0, chunkSizeForFile);
+
+            long position = chunkSizeForFile;
+            long tailChunkPosition = length - chunkSizeForFile;
+
+            // seek to position of the tail chunk, or not at all if length is smaller than two chunks
+            while (position < tailChunkPosition && (position += in.skip(tailChunkPosition - position)) >= 0) ;
+
+            // second chunk, or the rest of the data if length is smaller than two chunks
+            in.readFully(streamBytes, chunkSizeForFile, bytesToRead - chunkSizeForFile);
+
+            streamBuffer.clear();
+            long head = sumLongs(streamBuffer, 0, chunkSizeForFile);
+            long tail = sumLongs(streamBuffer, bytesToRead - chunkSizeForFile, chunkSizeForFile);
+
+            return length + head + tail;
+        }
+
+        private long hashChunk(FileChannel channel, long position, int length) throws IOException {
+            buffer.clear();
+            buffer.limit(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("File ended before " + (position + length) + " bytes");
+                }
+            }
+            return sumLongs(buffer, 0, length);
+        }
+
+        private long hashChunk(PositionalReader reader, long position, int length) throws IOException {
+            buffer.clear();
+            buffer.limit(length);
+            while (buffer.hasRemaining()) {
+                if (reader.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Data ended before " + (position + length) + " bytes");
+                }
+            }
+            return sumLongs(buffer, 0, length);
+        }
+
+        private static long sumLongs(ByteBuffer buffer, int offset, int length) {
+            long hash = 0;
+            for (int end = offset + length - 7; offset < end; offset += 8) {
+                hash += buffer.getLong(offset);
+            }
+            return hash;
+        }
+    }
 }
@@ -0,0 +1,201 @@
+package Opensubs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs items through a chain of stages connected by bounded queues. Every stage has its own worker
+ * threads, so disk, API and download latency overlap instead of adding up file by file. Because
+ * the source is consumed lazily and the queues are bounded, memory use does not grow with the
+ * number of items.
+ */
+public class Pipeline<T> {
+
+    public interface Stage<T> {
+        /**
+         * Processes a batch and returns the items that should move on to the next stage.
+         */
+        List<T> process(List<T> batch) throws Exception;
+    }
+
+    /**
+     * Told about every batch a stage has processed, from the worker thread that processed it.
+     */
+    public interface StageListener {
+        void batchDone(String stage, int batchSize, long nanos, boolean failed);
+    }
+
+    private static final Object END = new Object();
+
+    private final int queueCapacity;
+    private final List<StageSpec<T>> stages = new ArrayList<>();
+    private BiConsumer<List<T>, Exception> errorHandler = (batch, e) -> e.printStackTrace();
+    private StageListener stageListener;
+
+    public Pipeline(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public Pipeline<T> addStage(String name, int threads, Stage<T> stage) {
+        return addStage(name, threads, 1, stage);
+    }
+
+    /**
+     * Adds a stage whose workers take up to {@code batchSize} queued items at a time.
+     */
+    public Pipeline<T> addStage(String name, int threads, int batchSize, Stage<T> stage) {
+        if (threads < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Stage " + name + " needs at least one thread and a batch size of at least one");
+        }
+        stages.add(new StageSpec<>(name, threads, batchSize, stage));
+        return this;
+    }
+
+    /**
+     * Called with the failed batch when a stage throws. The batch is dropped afterwards.
+     */
+    public Pipeline<T> onError(BiConsumer<List<T>, Exception> errorHandler) {
+        this.errorHandler = errorHandler;
+        return this;
+    }
+
+    public Pipeline<T> onBatchDone(StageListener stageListener) {
+        this.stageListener = stageListener;
+        return this;
+    }
+
+    /**
+     * Feeds {@code source} into the first stage from the calling thread and returns once every
+     * item has left the last stage.
+     */
+    public void run(Iterator<T> source) throws InterruptedException {
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("Pipeline has no stages");
+        }
+
+        List<BlockingQueue<Object>> queues = new ArrayList<>();
+        for (int i = 0; i < stages.size(); i++) {
+            queues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < stages.size(); i++) {
+            StageSpec<T> spec = stages.get(i);
+            BlockingQueue<Object> in = queues.get(i);
+            BlockingQueue<Object> out = i + 1 < stages.size() ? queues.get(i + 1) : null;
+            int downstreamThreads = out != null ? stages.get(i + 1).threads : 0;
+            AtomicInteger running = new AtomicInteger(spec.threads);
+            for (int t = 0; t < spec.threads; t++) {
+                Thread worker = new Thread(() -> work(spec, in, out, running, downstreamThreads), spec.name + "-" + t);
+                worker.setDaemon(true);
+                worker.start();
+                workers.add(worker);
+            }
+        }
+
+        BlockingQueue<Object> first = queues.get(0);
+        try {
+            while (source.hasNext()) {
+                T item = source.next();
+                if (item != null) {
+                    first.put(item);
+                }
+            }
+        } finally {
+            for (int t = 0; t < stages.get(0).threads; t++) {
+                first.put(END);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void work(StageSpec<T> spec, BlockingQueue<Object> in, BlockingQueue<Object> out,
+                      AtomicInteger running, int downstreamThreads) {
+        List<Object> drained = new ArrayList<>(spec.batchSize);
+        try {
+            boolean done = false;
+            while (!done) {
+                drained.clear();
+                drained.add(in.take());
+                if (spec.batchSize > 1) {
+                    in.drainTo(drained, spec.batchSize - 1);
+                }
+
+                List<T> batch = new ArrayList<>(drained.size());
+                int ends = 0;
+                for (Object o : drained) {
+                    if (o == END) {
+                        ends++;
+                    } else {
+                        batch.add((T) o);
+                    }
+                }
+                // every worker consumes exactly one end marker, the rest belong to its siblings
+                for (int i = 1; i < ends; i++) {
+                    in.put(END);
+                }
+                done = ends > 0;
+
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                List<T> results;
+                long start = System.nanoTime();
+                try {
+                    results = spec.stage.process(batch);
+                } catch (Exception e) {
+                    batchDone(spec, batch.size(), start, true);
+                    errorHandler.accept(Collections.unmodifiableList(batch), e);
+                    continue;
+                }
+                batchDone(spec, batch.size(), start, false);
+                if (out != null && results != null) {
+                    for (T result : results) {
+                        out.put(result);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (running.decrementAndGet() == 0 && out != null) {
+                try {
+                    for (int t = 0; t < downstreamThreads; t++) {
+                        out.put(END);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void batchDone(StageSpec<T> spec, int batchSize, long start, boolean failed) {
+        if (stageListener != null) {
+            stageListener.batchDone(spec.name, batchSize, System.nanoTime() - start, failed);
+        }
+    }
+
+    private static class StageSpec<T> {
+        final String name;
+        final int threads;
+        final int batchSize;
+        final Stage<T> stage;
+
+        StageSpec(String name, int threads, int batchSize, Stage<T> stage) {
+            this.name = name;
+            this.threads = threads;
+            this.batchSize = batchSize;
+            this.stage = stage;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package Opensubs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A source of bytes that can be read at any position without reading what comes before, such as
+ * a file, a file on a web server that supports {@code Range} requests, or an entry of an
+ * uncompressed archive. {@link OpenSubtitleHasher#hash(PositionalReader)} only reads the first and
+ * last 64 KB through it.
+ */
+public interface PositionalReader extends Closeable {
+
+    /**
+     * @return the length of the data in bytes
+     */
+    long size() throws IOException;
+
+    /**
+     * Reads up to {@code dst.remaining()} bytes starting at {@code position}.
+     *
+     * @return the number of bytes read, or -1 when {@code position} is at or past the end
+     */
+    int read(ByteBuffer dst, long position) throws IOException;
+
+    /**
+     * Whether reads at different positions may run at the same time, so the head and tail of a
+     * hash can be fetched in parallel.
+     */
+    boolean isConcurrent();
+
+    /**
+     * Wraps a channel. A {@link FileChannel} is read with positional reads, which may run
+     * concurrently; any other channel is moved to the position first, one read at a time.
+     */
+    static PositionalReader of(SeekableByteChannel channel) {
+        return new PositionalReader() {
+            @Override
+            public long size() throws IOException {
+                return channel.size();
+            }
+
+            @Override
+            public int read(ByteBuffer dst, long position) throws IOException {
+                if (channel instanceof FileChannel) {
+                    return ((FileChannel) channel).read(dst, position);
+                }
+                synchronized (channel) {
+                    channel.position(position);
+                    return channel.read(dst);
+                }
+            }
+
+            @Override
+            public boolean isConcurrent() {
+                return channel instanceof FileChannel;
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,254 @@
+package Opensubs;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcHttpTransportException;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Paces API calls with a token bucket so a run stays within the server's request quota.
+ * <p>
+ * The rate adapts: a throttled call, reported as a {@code 429} or {@code 503} in the response
+ * {@code status} or as the HTTP status, halves the rate and pauses every caller for an
+ * exponentially growing, jittered backoff before the call is retried. Each successful call then
+ * raises the rate a little until it is back at the configured maximum.
+ * <p>
+ * Calls of {@link Priority#INTERACTIVE} callers take the next free token before any
+ * {@link Priority#BULK} caller does. The priority is set per thread with
+ * {@link #setThreadPriority(Priority)}.
+ * <p>
+ * Waiting callers park on a {@link ReentrantLock} condition rather than an object monitor, so a
+ * virtual thread that waits for a token does not pin its carrier thread.
+ */
+public class RequestScheduler {
+
+    public enum Priority {
+        /**
+         * A user waits for the result, such as a lookup of a single file.
+         */
+        INTERACTIVE,
+        /**
+         * Part of a larger job such as a library scan.
+         */
+        BULK
+    }
+
+    /**
+     * An API call, which may be repeated when it is throttled.
+     */
+    public interface Call<T> {
+        T call() throws XmlRpcException;
+    }
+
+    private static final ThreadLocal<Priority> THREAD_PRIORITY = ThreadLocal.withInitial(() -> Priority.INTERACTIVE);
+
+    private static final int MAX_RETRIES = 5;
+    private static final long BASE_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 60000;
+    /**
+     * Successful calls it takes to climb from the minimum back to the maximum rate.
+     */
+    private static final int RECOVERY_CALLS = 20;
+
+    private final double maxRate;
+    private final double minRate;
+    private final double burst;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition tokenFreed = lock.newCondition();
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    private long pausedUntil;
+    private int interactiveWaiting;
+    private long throttled;
+
+    /**
+     * @param requestsPerSecond the sustained rate to aim for
+     * @param burst             how many calls may be made at once after a quiet period
+     */
+    public RequestScheduler(double requestsPerSecond, int burst) {
+        if (requestsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("requestsPerSecond and burst must be positive");
+        }
+        this.maxRate = requestsPerSecond;
+        this.minRate = requestsPerSecond / 16;
+        this.burst = burst;
+        this.rate = requestsPerSecond;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+        this.pausedUntil = lastRefill;
+    }
+
+    public static void setThreadPriority(Priority priority) {
+        THREAD_PRIORITY.set(priority);
+    }
+
+    public static Priority getThreadPriority() {
+        return THREAD_PRIORITY.get();
+    }
+
+    /**
+     * Runs {@code call} once a token is free, retrying it with backoff while it is throttled.
+     *
+     * @throws XmlRpcException if the call fails, is still throttled after the last retry, or the
+     *                         thread is interrupted while waiting
+     */
+    public <T> T execute(Call<T> call) throws XmlRpcException {
+        Priority priority = getThreadPriority();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                acquire(priority);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XmlRpcException("Interrupted while waiting for the request quota", e);
+            }
+
+            T result;
+            String throttledStatus;
+            try {
+                result = call.call();
+                throttledStatus = throttledStatus(result);
+            } catch (XmlRpcHttpTransportException e) {
+                if (!isThrottled(Integer.toString(e.getStatusCode())) || attempt == MAX_RETRIES) {
+                    throw e;
+                }
+                result = null;
+                throttledStatus = Integer.toString(e.getStatusCode());
+            }
+            if (throttledStatus == null) {
+                succeeded();
+                return result;
+            }
+            if (attempt == MAX_RETRIES) {
+                throw new XmlRpcException("Still throttled after " + MAX_RETRIES + " retries: " + throttledStatus);
+            }
+            backOff(attempt);
+        }
+    }
+
+    /**
+     * @return the current, possibly reduced, rate in requests per second
+     */
+    public double getRate() {
+        lock.lock();
+        try {
+            return rate;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many calls were throttled by the server
+     */
+    public long getThrottled() {
+        lock.lock();
+        try {
+            return throttled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void acquire(Priority priority) throws InterruptedException {
+        boolean interactive = priority == Priority.INTERACTIVE;
+        lock.lockInterruptibly();
+        if (interactive) {
+            interactiveWaiting++;
+        }
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                refill(now);
+                if (now - pausedUntil >= 0 && tokens >= 1 && (interactive || interactiveWaiting == 0)) {
+                    tokens--;
+                    return;
+                }
+                long waitNanos = Math.max(pausedUntil - now, (long) ((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1)));
+                // a bulk caller that is only held back by an interactive one is signalled below
+                tokenFreed.awaitNanos(Math.max(waitNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+            }
+        } finally {
+            if (interactive) {
+                interactiveWaiting--;
+                tokenFreed.signalAll();
+            }
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a token only if one is free right now, for extra calls such as hedged copies that are
+     * dropped rather than delayed.
+     *
+     * @return whether a token was taken
+     */
+    public boolean tryAcquire() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            refill(now);
+            if (now - pausedUntil >= 0 && tokens >= 1 && interactiveWaiting == 0) {
+                tokens--;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+    }
+
+    private void succeeded() {
+        lock.lock();
+        try {
+            rate = Math.min(maxRate, rate + (maxRate - minRate) / RECOVERY_CALLS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Slows everyone down after a throttled call. The retry, like every other call, waits in
+     * {@link #acquire(Priority)} until the backoff is over.
+     */
+    private void backOff(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        // equal jitter: at least half the backoff so retries do not stampede, the rest random
+        long delayMillis = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        lock.lock();
+        try {
+            throttled++;
+            rate = Math.max(minRate, rate / 2);
+            tokens = Math.min(tokens, 0);
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            if (until - pausedUntil > 0) {
+                pausedUntil = until;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String throttledStatus(Object result) {
+        if (result instanceof Map) {
+            Object status = ((Map<?, ?>) result).get("status");
+            if (status instanceof String && isThrottled((String) status)) {
+                return (String) status;
+            }
+        }
+        return null;
+    }
+
+    static boolean isThrottled(String status) {
+        return status.startsWith("429") || status.startsWith("503");
+    }
+}
@@ -0,0 +1,369 @@
+package Opensubs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Remembers, per directory, whether every video in it is done: each of its subtitles either
+ * exists or is known to have no match. A rescan stats such a directory once and, while its
+ * modification time is unchanged, neither lists it nor checks its files again. Only its
+ * subdirectories, which are remembered too, are visited. Subtitles without a match are tried
+ * again after a week.
+ * <p>
+ * A directory whose modification time changed is listed again. If its names hash to the same
+ * digest as before, for example because a file was only touched, the earlier result still holds.
+ * <p>
+ * The store is a text file with a {@code D, mtime, digest, complete, path} line per directory,
+ * followed by an {@code S, name} line per subdirectory and an {@code N, time, name} line per
+ * subtitle without a match, all tab separated.
+ */
+public class ScanIndex {
+
+    private static final long NO_MATCH_RETRY_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    private final Path storeFile;
+    private final Map<Path, DirEntry> entries = new HashMap<>();
+    private final Set<Path> seen = new HashSet<>();
+    private final Set<Path> roots = new HashSet<>();
+    private final Set<Path> changed = new HashSet<>();
+    private Predicate<Path> isVideo = path -> false;
+    private BiPredicate<String, Set<String>> hasSubtitle = (name, names) -> false;
+    private long directoriesSkipped;
+    private long directoriesListed;
+
+    public ScanIndex() {
+        this(null);
+    }
+
+    private ScanIndex(Path storeFile) {
+        this.storeFile = storeFile;
+    }
+
+    /**
+     * Opens the index at {@code storeFile}, starting empty if it does not exist yet.
+     */
+    public static ScanIndex load(Path storeFile) throws IOException {
+        ScanIndex index = new ScanIndex(storeFile);
+        try (BufferedReader reader = Files.newBufferedReader(storeFile, StandardCharsets.UTF_8)) {
+            DirEntry entry = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 5);
+                try {
+                    if (fields[0].equals("D") && fields.length == 5) {
+                        entry = new DirEntry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3].equals("1"));
+                        index.entries.put(Paths.get(fields[4]), entry);
+                    } else if (fields[0].equals("S") && fields.length == 2 && entry != null) {
+                        entry.subdirectories.add(fields[1]);
+                    } else if (fields[0].equals("N") && fields.length == 3 && entry != null) {
+                        entry.noMatch.put(fields[2], Long.parseLong(fields[1]));
+                    }
+                } catch (NumberFormatException e) {
+                    // skip corrupt line, the directory is listed again
+                    entry = null;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // first run
+        }
+        return index;
+    }
+
+    /**
+     * Lazily walks {@code root} and returns the videos that still need a subtitle.
+     *
+     * @param isVideo     whether a file is a video to find subtitles for
+     * @param hasSubtitle whether the video of the given name has its subtitles among the names of
+     *                    its directory, which include the subtitles recently found to have no match
+     */
+    public Iterator<Path> walk(Path root, boolean recursive, Predicate<Path> isVideo, BiPredicate<String, Set<String>> hasSubtitle) {
+        Path start = root.toAbsolutePath().normalize();
+        synchronized (this) {
+            this.isVideo = isVideo;
+            this.hasSubtitle = hasSubtitle;
+            if (recursive) {
+                roots.add(start);
+            }
+        }
+        return new Iterator<Path>() {
+            private final Deque<Path> directories = new ArrayDeque<>(Collections.singleton(start));
+            private final Set<Object> visited = new HashSet<>();
+            private final Deque<Path> videos = new ArrayDeque<>();
+
+            @Override
+            public boolean hasNext() {
+                while (videos.isEmpty() && !directories.isEmpty()) {
+                    Path dir = directories.pop();
+                    List<Path> subdirectories = new ArrayList<>();
+                    videos.addAll(scan(dir, visited, subdirectories));
+                    if (recursive) {
+                        for (int i = subdirectories.size() - 1; i >= 0; i--) {
+                            directories.push(subdirectories.get(i));
+                        }
+                    }
+                }
+                return !videos.isEmpty();
+            }
+
+            @Override
+            public Path next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return videos.pop();
+            }
+        };
+    }
+
+    /**
+     * Records that the server has none of {@code subtitles} for {@code video}, which is done with
+     * unless a subtitle of another language was written, see {@link #downloaded(Path)}.
+     *
+     * @param subtitles the subtitle files, next to the video, that could not be found
+     */
+    public synchronized void noMatch(Path video, Collection<Path> subtitles) {
+        DirEntry entry = entries.get(video.toAbsolutePath().normalize().getParent());
+        if (entry != null && entry.pending.remove(video.getFileName().toString())) {
+            long now = System.currentTimeMillis();
+            for (Path subtitle : subtitles) {
+                entry.noMatch.put(subtitle.getFileName().toString(), now);
+            }
+            // nothing was written, so the recorded modification time still holds
+            entry.complete = entry.pending.isEmpty();
+        }
+    }
+
+    /**
+     * Records that a subtitle was written next to {@code video}. Such directories are listed once
+     * more by {@link #save()} to pick up their new modification time.
+     */
+    public synchronized void downloaded(Path video) {
+        Path dir = video.toAbsolutePath().normalize().getParent();
+        DirEntry entry = entries.get(dir);
+        if (entry != null) {
+            entry.pending.remove(video.getFileName().toString());
+            changed.add(dir);
+        }
+    }
+
+    /**
+     * Writes the index, dropping directories below the walked roots that no longer exist.
+     */
+    public void save() throws IOException {
+        List<Path> rescan = new ArrayList<>();
+        synchronized (this) {
+            for (Path dir : changed) {
+                DirEntry entry = entries.get(dir);
+                if (entry != null && entry.pending.isEmpty()) {
+                    rescan.add(dir);
+                }
+            }
+            changed.clear();
+        }
+        for (Path dir : rescan) {
+            scan(dir, new HashSet<>(), new ArrayList<>());
+        }
+        Map<Path, DirEntry> snapshot;
+        synchronized (this) {
+            entries.keySet().removeIf(dir -> !seen.contains(dir) && roots.stream().anyMatch(dir::startsWith));
+            snapshot = new HashMap<>(entries);
+        }
+        if (storeFile == null) {
+            return;
+        }
+
+        Path dir = storeFile.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, storeFile.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<Path, DirEntry> e : snapshot.entrySet()) {
+                DirEntry entry = e.getValue();
+                writer.write("D\t" + entry.lastModified + "\t" + entry.digest + "\t" + (entry.complete ? 1 : 0) + "\t" + e.getKey());
+                writer.newLine();
+                for (String subdirectory : entry.subdirectories) {
+                    writer.write("S\t" + subdirectory);
+                    writer.newLine();
+                }
+                for (Map.Entry<String, Long> noMatch : entry.noMatch.entrySet()) {
+                    writer.write("N\t" + noMatch.getValue() + "\t" + noMatch.getKey());
+                    writer.newLine();
+                }
+            }
+        }
+        Files.move(tmp, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return how many directories were skipped after a single stat
+     */
+    public synchronized long getDirectoriesSkipped() {
+        return directoriesSkipped;
+    }
+
+    /**
+     * @return how many directories had to be listed
+     */
+    public synchronized long getDirectoriesListed() {
+        return directoriesListed;
+    }
+
+    /**
+     * Looks at one directory, listing it only when the index can not vouch for it. The file system
+     * is read without holding the lock, which is only taken to look up and publish the entry.
+     *
+     * @return the videos that need a subtitle, with the subdirectories added to
+     * {@code subdirectories}
+     */
+    private List<Path> scan(Path dir, Set<Object> visited, List<Path> subdirectories) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(dir, BasicFileAttributes.class);
+        } catch (IOException e) {
+            // gone or unreadable, forget it
+            return Collections.emptyList();
+        }
+        // the file key stops symbolic link loops
+        if (attributes.fileKey() != null && !visited.add(attributes.fileKey())) {
+            return Collections.emptyList();
+        }
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        long now = System.currentTimeMillis();
+
+        DirEntry entry;
+        boolean done;
+        Map<String, Long> noMatch;
+        Predicate<Path> isVideo;
+        BiPredicate<String, Set<String>> hasSubtitle;
+        synchronized (this) {
+            seen.add(dir);
+            entry = entries.get(dir);
+            done = entry != null && entry.isDone(now);
+            if (done && entry.lastModified == lastModified) {
+                directoriesSkipped++;
+                for (String subdirectory : entry.subdirectories) {
+                    subdirectories.add(dir.resolve(subdirectory));
+                }
+                return Collections.emptyList();
+            }
+            directoriesListed++;
+            noMatch = entry != null ? new HashMap<>(entry.noMatch) : Collections.emptyMap();
+            isVideo = this.isVideo;
+            hasSubtitle = this.hasSubtitle;
+        }
+
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                names.add(path.getFileName().toString());
+            }
+        } catch (IOException e) {
+            return Collections.emptyList();
+        }
+        Collections.sort(names);
+        long digest = digest(names);
+        if (done && entry.digest == digest) {
+            DirEntry touched = new DirEntry(lastModified, digest, true);
+            touched.subdirectories.addAll(entry.subdirectories);
+            touched.noMatch.putAll(noMatch);
+            synchronized (this) {
+                entries.put(dir, touched);
+            }
+            for (String subdirectory : entry.subdirectories) {
+                subdirectories.add(dir.resolve(subdirectory));
+            }
+            return Collections.emptyList();
+        }
+        DirEntry updated = new DirEntry(lastModified, digest, false);
+        // a subtitle without a recent match counts as present, one that appeared meanwhile is dropped
+        Set<String> nameSet = new HashSet<>(names);
+        for (Map.Entry<String, Long> missing : noMatch.entrySet()) {
+            if (now - missing.getValue() < NO_MATCH_RETRY_MILLIS && nameSet.add(missing.getKey())) {
+                updated.noMatch.put(missing.getKey(), missing.getValue());
+            }
+        }
+        List<Path> videos = new ArrayList<>();
+        for (String name : names) {
+            Path path = dir.resolve(name);
+            if (Files.isDirectory(path)) {
+                updated.subdirectories.add(name);
+                subdirectories.add(path);
+            } else if (isVideo.test(path) && !hasSubtitle.test(name, nameSet)) {
+                updated.pending.add(name);
+                videos.add(path);
+            }
+        }
+        updated.complete = updated.pending.isEmpty();
+        synchronized (this) {
+            entries.put(dir, updated);
+        }
+        return videos;
+    }
+
+    /**
+     * FNV-1a over the sorted names.
+     */
+    private static long digest(List<String> names) {
+        long hash = 0xcbf29ce484222325L;
+        for (String name : names) {
+            for (int i = 0; i < name.length(); i++) {
+                hash = (hash ^ name.charAt(i)) * 0x100000001b3L;
+            }
+            hash = (hash ^ '/') * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static class DirEntry {
+        final long lastModified;
+        final long digest;
+        boolean complete;
+        final List<String> subdirectories = new ArrayList<>();
+        final Map<String, Long> noMatch = new HashMap<>();
+        /**
+         * Videos of this run that are still being worked on.
+         */
+        final Set<String> pending = new HashSet<>();
+
+        DirEntry(long lastModified, long digest, boolean complete) {
+            this.lastModified = lastModified;
+            this.digest = digest;
+            this.complete = complete;
+        }
+
+        boolean isDone(long now) {
+            if (!complete) {
+                return false;
+            }
+            for (long since : noMatch.values()) {
+                if (now - since >= NO_MATCH_RETRY_MILLIS) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
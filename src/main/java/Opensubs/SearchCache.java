@@ -0,0 +1,35 @@
+package Opensubs;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stores SearchSubtitles results so repeated queries skip the round trip to the server. Set one
+ * on {@link OpenSubtitle#setSearchCache(SearchCache)}; implementations must be thread-safe.
+ */
+public interface SearchCache {
+
+    /**
+     * @return the cached results, or {@code null} when the key is unknown or expired
+     */
+    List<CompactSubtitleInfo> get(String key);
+
+    void put(String key, List<CompactSubtitleInfo> results);
+
+    /**
+     * Builds a cache key from the method name and its parameters. Parameters are sorted by name
+     * and their values are trimmed, lower cased and have runs of white space collapsed, so
+     * queries that only differ in formatting share an entry.
+     */
+    static String key(String method, Map<String, ?> params) {
+        StringBuilder key = new StringBuilder(method);
+        for (Map.Entry<String, ?> param : new TreeMap<>(params).entrySet()) {
+            key.append('|').append(param.getKey()).append('=');
+            if (param.getValue() != null) {
+                key.append(param.getValue().toString().trim().replaceAll("\\s+", " ").toLowerCase());
+            }
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,148 @@
+package Opensubs;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * One immutable SearchSubtitles query, for {@link OpenSubtitle#search(SearchRequest)}. Instances
+ * can be shared between threads and compare equal when they ask the same thing.
+ * <p>
+ * The language is a {@code sublanguageid}, or several separated by commas, such as
+ * {@code eng,spa}, to get the results of all of them from one call.
+ */
+public final class SearchRequest {
+
+    /**
+     * The most results the server returns for one call.
+     */
+    public static final int MAX_LIMIT = 500;
+
+    static final String MOVIE_HASH = "moviehash";
+    static final String LANGUAGE = "sublanguageid";
+
+    private final Map<String, String> query;
+    private final int limit;
+
+    private SearchRequest(Map<String, String> query, int limit) {
+        this.query = Collections.unmodifiableMap(query);
+        this.limit = limit;
+    }
+
+    public static SearchRequest byHash(String movieHash, String language) {
+        Map<String, String> query = new TreeMap<>();
+        query.put(MOVIE_HASH, movieHash.toLowerCase());
+        query.put(LANGUAGE, language);
+        return new SearchRequest(query, MAX_LIMIT);
+    }
+
+    public static SearchRequest byName(String name, String language) {
+        Map<String, String> query = new TreeMap<>();
+        query.put("query", name);
+        query.put(LANGUAGE, language);
+        return new SearchRequest(query, MAX_LIMIT);
+    }
+
+    /**
+     * Every episode of a season, for matching many episodes with one call.
+     */
+    public static SearchRequest bySeason(String name, String season, String language) {
+        Map<String, String> query = new TreeMap<>();
+        query.put("query", name);
+        query.put("season", season);
+        query.put(LANGUAGE, language);
+        return new SearchRequest(query, MAX_LIMIT);
+    }
+
+    /**
+     * @param imdbId the IMDb id of the movie or show, without the {@code tt} prefix
+     */
+    public static SearchRequest byImdbId(String imdbId, String language) {
+        Map<String, String> query = new TreeMap<>();
+        query.put("imdbid", imdbId);
+        query.put(LANGUAGE, language);
+        return new SearchRequest(query, MAX_LIMIT);
+    }
+
+    /**
+     * Every episode of a season of the show with the IMDb id.
+     */
+    public static SearchRequest byImdbSeason(String imdbId, String season, String language) {
+        Map<String, String> query = new TreeMap<>();
+        query.put("imdbid", imdbId);
+        query.put("season", season);
+        query.put(LANGUAGE, language);
+        return new SearchRequest(query, MAX_LIMIT);
+    }
+
+    public static SearchRequest byEpisode(String name, String season, String episode, String language) {
+        Map<String, String> query = new TreeMap<>();
+        query.put("query", name);
+        query.put("season", season);
+        query.put("episode", episode);
+        query.put(LANGUAGE, language);
+        return new SearchRequest(query, MAX_LIMIT);
+    }
+
+    /**
+     * @param limit the most results to return, at most {@link #MAX_LIMIT}
+     */
+    public SearchRequest withLimit(int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT + ": " + limit);
+        }
+        return new SearchRequest(query, limit);
+    }
+
+    /**
+     * @return the lower case movie hash, or {@code null} when this is not a hash search
+     */
+    public String getMovieHash() {
+        return query.get(MOVIE_HASH);
+    }
+
+    public String getLanguage() {
+        return query.get(LANGUAGE);
+    }
+
+    /**
+     * @return the query struct sent to the server, sorted by name
+     */
+    public Map<String, String> getQuery() {
+        return query;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Whether this only asks for a movie hash, so it can share a call with other hash searches.
+     */
+    boolean isHashOnly() {
+        return getMovieHash() != null && query.size() == 2 && getLanguage() != null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SearchRequest)) {
+            return false;
+        }
+        SearchRequest that = (SearchRequest) o;
+        return limit == that.limit && query.equals(that.query);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(query, limit);
+    }
+
+    @Override
+    public String toString() {
+        return query + " limit " + limit;
+    }
+}
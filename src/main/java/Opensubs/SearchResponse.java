@@ -0,0 +1,51 @@
+package Opensubs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The immutable results of one {@link SearchRequest}, in the order the server ranked them.
+ */
+public final class SearchResponse {
+
+    private final SearchRequest request;
+    private final List<CompactSubtitleInfo> results;
+    private final boolean cached;
+
+    SearchResponse(SearchRequest request, List<CompactSubtitleInfo> results, boolean cached) {
+        this.request = request;
+        this.results = Collections.unmodifiableList(results);
+        this.cached = cached;
+    }
+
+    public SearchRequest getRequest() {
+        return request;
+    }
+
+    public List<CompactSubtitleInfo> getResults() {
+        return results;
+    }
+
+    public boolean isEmpty() {
+        return results.isEmpty();
+    }
+
+    /**
+     * @return whether the results came from the {@link SearchCache} rather than the server
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * @return mutable copies of the results, for code written against {@link SubtitleInfo}
+     */
+    public List<SubtitleInfo> toSubtitleInfos() {
+        List<SubtitleInfo> infos = new ArrayList<>(results.size());
+        for (CompactSubtitleInfo result : results) {
+            infos.add(result.toSubtitleInfo());
+        }
+        return infos;
+    }
+}
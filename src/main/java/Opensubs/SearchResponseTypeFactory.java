@@ -0,0 +1,233 @@
+package Opensubs;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.common.TypeFactoryImpl;
+import org.apache.xmlrpc.common.XmlRpcController;
+import org.apache.xmlrpc.common.XmlRpcStreamConfig;
+import org.apache.xmlrpc.parser.TypeParser;
+import org.apache.xmlrpc.parser.TypeParserImpl;
+import org.apache.xmlrpc.serializer.MapSerializer;
+import org.apache.xmlrpc.serializer.TypeSerializerImpl;
+import org.apache.ws.commons.util.NamespaceContextImpl;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Parses SearchSubtitles responses straight into {@link CompactSubtitleInfo} objects. The generic
+ * parser builds a {@code HashMap} with every member of every result, including nested structs
+ * such as {@code QueryParameters}, only for {@link OpenSubtitle} to copy a few of them out. This
+ * factory's struct parser keeps the values of the wanted members in an array indexed by field,
+ * drops all other members without building their values, and turns every struct that carries
+ * subtitle fields into a {@link CompactSubtitleInfo}. Other structs, such as the response envelope,
+ * still come out as maps.
+ * <p>
+ * Register it on a client that is only used for SearchSubtitles.
+ */
+public class SearchResponseTypeFactory extends TypeFactoryImpl {
+
+    /**
+     * Members kept outside the subtitle fields: those of the response and of a {@code <fault>}.
+     */
+    private static final Set<String> ENVELOPE_MEMBERS = new HashSet<>(Arrays.asList("status", "data", "seconds",
+            "faultCode", "faultString", "faultCause"));
+    private static final String STRING_TAG = "string";
+
+    private final Map<String, Integer> fieldIndexes = new HashMap<>();
+
+    public SearchResponseTypeFactory(XmlRpcController controller) {
+        this(controller, new HashSet<>(SubtitleInfo.FIELD_NAMES));
+    }
+
+    /**
+     * @param subtitleFields the subtitle members to keep, other members are skipped
+     */
+    public SearchResponseTypeFactory(XmlRpcController controller, Set<String> subtitleFields) {
+        super(controller);
+        for (String field : subtitleFields) {
+            fieldIndexes.put(field, fieldIndexes.size());
+        }
+    }
+
+    @Override
+    public TypeParser getParser(XmlRpcStreamConfig config, NamespaceContextImpl context, String uri, String localName) {
+        if ("".equals(uri) && MapSerializer.STRUCT_TAG.equals(localName)) {
+            return new StructParser(config, context);
+        }
+        return super.getParser(config, context, uri, localName);
+    }
+
+    /**
+     * Parses one {@code <struct>}. Nesting levels: 0 is the struct, 1 a member, 2 its name or value
+     * and everything from 3 on belongs to the value.
+     */
+    private class StructParser extends TypeParserImpl {
+        private final XmlRpcStreamConfig config;
+        private final NamespaceContextImpl context;
+        private final StringBuilder text = new StringBuilder();
+        private String[] fields;
+        private Map<String, Object> others;
+        private int level;
+        private String name;
+        private boolean inName;
+        private boolean inValue;
+        private boolean skipValue;
+        private boolean inString;
+        private boolean stringDone;
+        private TypeParser valueParser;
+
+        StructParser(XmlRpcStreamConfig config, NamespaceContextImpl context) {
+            this.config = config;
+            this.context = context;
+        }
+
+        @Override
+        public void startDocument() {
+            level = 0;
+            fields = null;
+            others = null;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            switch (level++) {
+                case 0:
+                    break;
+                case 1:
+                    name = null;
+                    inName = inValue = false;
+                    break;
+                case 2:
+                    text.setLength(0);
+                    if (MapSerializer.NAME_TAG.equals(localName)) {
+                        inName = true;
+                    } else if (TypeSerializerImpl.VALUE_TAG.equals(localName)) {
+                        if (name == null) {
+                            throw new SAXParseException("Expected " + MapSerializer.NAME_TAG + ", got " + localName, getDocumentLocator());
+                        }
+                        inValue = true;
+                        skipValue = !fieldIndexes.containsKey(name) && !ENVELOPE_MEMBERS.contains(name);
+                        valueParser = null;
+                        inString = stringDone = false;
+                    }
+                    break;
+                default:
+                    if (skipValue) {
+                        break;
+                    }
+                    if (valueParser == null) {
+                        // plain strings are collected here rather than by a StringParser
+                        if (level == 4 && STRING_TAG.equals(localName)) {
+                            text.setLength(0);
+                            inString = true;
+                            break;
+                        }
+                        valueParser = SearchResponseTypeFactory.this.getParser(config, context, uri, localName);
+                        if (valueParser == null) {
+                            throw new SAXParseException("Unknown type: " + localName, getDocumentLocator());
+                        }
+                        valueParser.setDocumentLocator(getDocumentLocator());
+                        valueParser.startDocument();
+                    }
+                    valueParser.startElement(uri, localName, qName, attributes);
+                    break;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            switch (--level) {
+                case 0:
+                    setResult(result());
+                    break;
+                case 1:
+                    break;
+                case 2:
+                    if (inName) {
+                        name = text.toString();
+                        inName = false;
+                    } else if (inValue) {
+                        if (!skipValue) {
+                            Object value;
+                            if (valueParser != null) {
+                                valueParser.endDocument();
+                                try {
+                                    value = valueParser.getResult();
+                                } catch (XmlRpcException e) {
+                                    throw new SAXException(e);
+                                }
+                            } else {
+                                value = text.toString();
+                            }
+                            put(name, value);
+                        }
+                        inValue = false;
+                        valueParser = null;
+                    }
+                    break;
+                default:
+                    if (skipValue) {
+                        break;
+                    }
+                    if (valueParser != null) {
+                        valueParser.endElement(uri, localName, qName);
+                    } else if (inString) {
+                        inString = false;
+                        stringDone = true;
+                    }
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] chars, int offset, int length) throws SAXException {
+            if (inName || (inValue && !skipValue && valueParser == null && (inString || !stringDone))) {
+                text.append(chars, offset, length);
+            } else if (inValue && !skipValue && valueParser != null) {
+                valueParser.characters(chars, offset, length);
+            }
+            // anything else is whitespace around a <string> that has been read already
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] chars, int offset, int length) throws SAXException {
+            characters(chars, offset, length);
+        }
+
+        private void put(String member, Object value) {
+            Integer index = fieldIndexes.get(member);
+            if (index != null) {
+                if (fields == null) {
+                    fields = new String[fieldIndexes.size()];
+                }
+                fields[index] = value != null ? value.toString() : null;
+            } else {
+                if (others == null) {
+                    others = new HashMap<>();
+                }
+                others.put(member, value);
+            }
+        }
+
+        private Object result() {
+            if (fields != null) {
+                String[] values = fields;
+                return CompactSubtitleInfo.from(field -> {
+                    Integer index = fieldIndexes.get(field);
+                    return index != null ? values[index] : null;
+                });
+            }
+            HashMap<String, Object> map = new HashMap<>();
+            if (others != null) {
+                map.putAll(others);
+            }
+            return map;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package Opensubs;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Looks up TV episodes a season at a time. The first episode of a show and season asks the
+ * server for the whole season with the highest limit, and that episode and all later ones of the
+ * season are matched against the answer locally, by the {@code SeriesSeason} and
+ * {@code SeriesEpisode} of each result or, where those are missing, by the season and episode in
+ * its {@code SubFileName}. A folder with a season of 20 episodes so costs one call instead of 20.
+ * <p>
+ * Episodes that are not in the season's results are left to a search of their own. Episodes of
+ * the same season that are looked up at the same time wait for the one season search.
+ */
+public class SeasonPlanner {
+
+    private final OpenSubtitle openSubtitle;
+    private final FilenameParser filenameParser = new FilenameParser();
+    private final Map<SearchRequest, CompletableFuture<List<CompactSubtitleInfo>>> seasons = new ConcurrentHashMap<>();
+
+    public SeasonPlanner(OpenSubtitle openSubtitle) {
+        this.openSubtitle = openSubtitle;
+    }
+
+    /**
+     * @param language a {@code sublanguageid} or a comma separated list of them
+     * @return the season's results for the episode in the server's ranking, empty when the
+     * season search found none or failed
+     */
+    public List<CompactSubtitleInfo> episode(String name, String season, String episode, String language) {
+        return episode(number -> SearchRequest.bySeason(name, number, language), season, episode);
+    }
+
+    /**
+     * Like {@link #episode(String, String, String, String)}, for a show whose IMDb id is known.
+     */
+    public List<CompactSubtitleInfo> episodeByImdbId(String imdbId, String season, String episode, String language) {
+        return episode(number -> SearchRequest.byImdbSeason(imdbId, number, language), season, episode);
+    }
+
+    private List<CompactSubtitleInfo> episode(Function<String, SearchRequest> seasonRequest, String season, String episode) {
+        int seasonNumber;
+        int episodeNumber;
+        try {
+            seasonNumber = Integer.parseInt(season);
+            episodeNumber = Integer.parseInt(episode);
+        } catch (NumberFormatException e) {
+            return Collections.emptyList();
+        }
+        List<CompactSubtitleInfo> matches = new ArrayList<>();
+        for (CompactSubtitleInfo result : season(seasonRequest.apply(Integer.toString(seasonNumber)))) {
+            if (matches(result, seasonNumber, episodeNumber)) {
+                matches.add(result);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @return how many season searches were made
+     */
+    public int getSeasonSearches() {
+        return seasons.size();
+    }
+
+    private List<CompactSubtitleInfo> season(SearchRequest request) {
+        CompletableFuture<List<CompactSubtitleInfo>> results = new CompletableFuture<>();
+        CompletableFuture<List<CompactSubtitleInfo>> existing = seasons.putIfAbsent(request, results);
+        if (existing != null) {
+            return existing.join();
+        }
+        try {
+            results.complete(openSubtitle.search(request).getResults());
+        } catch (XmlRpcException | RuntimeException e) {
+            // the episodes are searched one by one instead
+            results.complete(Collections.emptyList());
+        }
+        return results.join();
+    }
+
+    private boolean matches(CompactSubtitleInfo result, int season, int episode) {
+        if (result.getSeriesSeason() > 0 && result.getSeriesEpisode() > 0) {
+            return result.getSeriesSeason() == season && result.getSeriesEpisode() == episode;
+        }
+        if (result.getSubFileName() == null) {
+            return false;
+        }
+        FilenameParser.ParsedName parsed = filenameParser.parse(result.getSubFileName());
+        try {
+            return Integer.parseInt(parsed.getSeason()) == season && Integer.parseInt(parsed.getEpisode()) == episode;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package Opensubs;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one API session alive for an {@link OpenSubtitle} client, and across processes.
+ * <p>
+ * {@link #open()} reuses the token of an earlier run by the same user while it has not yet expired
+ * on the server, and only logs in when it has. While the session is open, a background thread
+ * sends NoOperation pings whenever no other call was made for a while, and a call that is
+ * rejected because the session expired logs in again and is retried by the client.
+ * {@link #close()} keeps the session on the server and stores the token for the next run.
+ * <p>
+ * The store is a text file with one {@code username, token, last used} line, tab separated. It is
+ * created readable only by its owner where the file system supports that.
+ */
+public class SessionManager {
+
+    /**
+     * The server drops a session after 15 minutes without calls.
+     */
+    private static final long SESSION_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    private static final long KEEP_ALIVE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long KEEP_ALIVE_CHECK_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final OpenSubtitle openSubtitle;
+    private final String username;
+    private final String password;
+    private final Path storeFile;
+    private volatile long lastUsed;
+    private ScheduledExecutorService keepAlive;
+    private long logins;
+
+    /**
+     * @param storeFile where the token is kept between runs, or {@code null} to not keep it
+     */
+    public SessionManager(OpenSubtitle openSubtitle, String username, String password, Path storeFile) {
+        this.openSubtitle = openSubtitle;
+        this.username = username != null ? username : "";
+        this.password = password != null ? password : "";
+        this.storeFile = storeFile;
+    }
+
+    /**
+     * Starts or resumes the session and the keep-alive pings.
+     */
+    public synchronized void open() throws IOException, XmlRpcException {
+        openSubtitle.setSessionManager(this);
+        String storedToken = readStoredToken();
+        if (storedToken != null) {
+            openSubtitle.strToken = storedToken;
+            // logs in again through renew() if the server no longer knows the token
+            openSubtitle.noOperation();
+        } else {
+            login();
+        }
+
+        keepAlive = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-keep-alive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        keepAlive.scheduleWithFixedDelay(this::ping, KEEP_ALIVE_CHECK_MILLIS, KEEP_ALIVE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the pings and stores the token for the next run. The session stays open on the server
+     * until it times out.
+     */
+    public synchronized void close() throws IOException {
+        if (keepAlive != null) {
+            keepAlive.shutdownNow();
+            keepAlive = null;
+        }
+        if (storeFile == null || openSubtitle.strToken == null || openSubtitle.strToken.isEmpty()) {
+            return;
+        }
+        Path dir = storeFile.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, storeFile.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write(username + "\t" + openSubtitle.strToken + "\t" + lastUsed);
+            writer.newLine();
+        }
+        Files.move(tmp, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Logs in again after the server rejected {@code staleToken}, unless another thread already
+     * did.
+     *
+     * @return the token to retry with
+     */
+    synchronized String renew(String staleToken) throws XmlRpcException {
+        if (Objects.equals(openSubtitle.strToken, staleToken)) {
+            login();
+        }
+        return openSubtitle.strToken;
+    }
+
+    /**
+     * Records that the session was just used, which postpones the next ping.
+     */
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * @return how many times this process had to log in
+     */
+    public synchronized long getLogins() {
+        return logins;
+    }
+
+    private void login() throws XmlRpcException {
+        logins++;
+        openSubtitle.login(username, password);
+    }
+
+    private void ping() {
+        if (System.currentTimeMillis() - lastUsed < KEEP_ALIVE_MILLIS) {
+            return;
+        }
+        try {
+            openSubtitle.noOperation();
+        } catch (XmlRpcException e) {
+            // the next call logs in again if the session was lost
+        }
+    }
+
+    private String readStoredToken() throws IOException {
+        if (storeFile == null) {
+            return null;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(storeFile, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            String[] fields = line != null ? line.split("\t", 3) : new String[0];
+            if (fields.length < 3 || !fields[0].equals(username) || fields[1].isEmpty()) {
+                return null;
+            }
+            long storedLastUsed = Long.parseLong(fields[2]);
+            if (System.currentTimeMillis() - storedLastUsed >= SESSION_TIMEOUT_MILLIS) {
+                return null;
+            }
+            return fields[1];
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (NumberFormatException e) {
+            // corrupt store, log in again
+            return null;
+        }
+    }
+}
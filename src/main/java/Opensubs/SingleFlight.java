@@ -0,0 +1,120 @@
+package Opensubs;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets concurrent callers that ask for the same thing share one execution. The first caller of a
+ * key leads the flight and does the work; callers that join while it is in the air wait for it
+ * and get the same result or exception. Once the flight lands the key is free again, so a later
+ * caller starts a new one.
+ */
+final class SingleFlight<K, V> {
+
+    interface Call<V, E extends Exception> {
+        V call() throws E;
+    }
+
+    private final Map<K, Flight> flights = new ConcurrentHashMap<>();
+    private final AtomicLong joined = new AtomicLong();
+
+    /**
+     * Runs {@code call} unless a flight for {@code key} is in the air, in which case its result is
+     * returned instead.
+     */
+    <E extends Exception> V execute(K key, Class<E> exceptionType, Call<V, E> call) throws E {
+        Flight flight = join(key);
+        if (!flight.isLeader()) {
+            return flight.await(exceptionType);
+        }
+        try {
+            V value = call.call();
+            flight.complete(value);
+            return value;
+        } catch (Exception | Error e) {
+            flight.fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Joins the flight for {@code key}, or starts it. The leader must {@link Flight#complete} or
+     * {@link Flight#fail} it, everyone else {@link Flight#await}s it.
+     */
+    Flight join(K key) {
+        Flight flight = new Flight(key, true);
+        Flight existing = flights.putIfAbsent(key, flight);
+        if (existing == null) {
+            return flight;
+        }
+        joined.incrementAndGet();
+        return new Flight(existing, false);
+    }
+
+    /**
+     * @return how many callers shared a flight instead of starting their own
+     */
+    long getJoined() {
+        return joined.get();
+    }
+
+    final class Flight {
+        private final K key;
+        private final CompletableFuture<V> result;
+        private final boolean leader;
+
+        private Flight(K key, boolean leader) {
+            this.key = key;
+            this.result = new CompletableFuture<>();
+            this.leader = leader;
+        }
+
+        private Flight(Flight leading, boolean leader) {
+            this.key = leading.key;
+            this.result = leading.result;
+            this.leader = leader;
+        }
+
+        boolean isLeader() {
+            return leader;
+        }
+
+        void complete(V value) {
+            land();
+            result.complete(value);
+        }
+
+        void fail(Throwable failure) {
+            land();
+            result.completeExceptionally(failure);
+        }
+
+        private void land() {
+            flights.remove(key, this);
+        }
+
+        /**
+         * Waits for the leader and returns its result, or throws its exception.
+         */
+        <E extends Exception> V await(Class<E> exceptionType) throws E {
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (exceptionType.isInstance(cause)) {
+                    throw exceptionType.cast(cause);
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+    }
+}
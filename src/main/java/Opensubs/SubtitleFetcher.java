@@ -0,0 +1,491 @@
+package Opensubs;
+
+import Opensubs.FilenameParser.ParsedName;
+import org.apache.xmlrpc.XmlRpcException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Finds and downloads subtitles for the video files under a root, one {@link Job} per file. The
+ * work is split into hash, hash search, name search and download stages that {@link #run(Path, boolean)} connects
+ * through a {@link Pipeline}.
+ */
+public class SubtitleFetcher {
+    static final Set<String> possibleExtensions = Stream.of(
+            "mp4",
+            "avi",
+            "mkv",
+            "m4v"
+    ).map(s -> "." + s).collect(Collectors.toSet());
+
+    static final Set<String> skippableExtensions = Stream.of(
+            "wmv",
+            "png",
+            "mov",
+            "srt",
+            "txt",
+            "jpg",
+            "jpeg",
+            "DS_Store",
+            "gz",
+            "dat",
+            "zip",
+            "nfo",
+            "db",
+            "m2ts",
+            "sub",
+            "rar",
+            "idx",
+            "sfv"
+    ).map(s -> "." + s).collect(Collectors.toSet());
+
+    private final FilenameParser filenameParser = new FilenameParser();
+    private final OpenSubtitle openSubtitle;
+    private boolean force;
+    private boolean disableHash;
+    private boolean useParentFolderName;
+    private String seriesName;
+    private int hashThreads = 1;
+    private int searchThreads = 1;
+    private int downloadThreads = 1;
+    private int queueCapacity = 64;
+    private RequestScheduler.Priority priority;
+    private ScanIndex scanIndex;
+    private IdentityResolver identityResolver;
+    private Pipeline.StageListener stageListener;
+    private List<String> languages = Collections.singletonList("eng");
+
+    public SubtitleFetcher(OpenSubtitle openSubtitle) {
+        this.openSubtitle = openSubtitle;
+    }
+
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    public void setDisableHash(boolean disableHash) {
+        this.disableHash = disableHash;
+    }
+
+    public void setUseParentFolderName(boolean useParentFolderName) {
+        this.useParentFolderName = useParentFolderName;
+    }
+
+    public void setSeriesName(String seriesName) {
+        this.seriesName = seriesName;
+    }
+
+    public void setThreads(int hashThreads, int searchThreads, int downloadThreads) {
+        this.hashThreads = hashThreads;
+        this.searchThreads = searchThreads;
+        this.downloadThreads = downloadThreads;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Sets the languages to fetch, as two or three letter codes, see {@link Languages}. All of them
+     * are searched for with one query per file. With a single language the subtitle is written
+     * to {@code movie.srt}, otherwise each one goes to {@code movie.<code>.srt}, e.g.
+     * {@code movie.en.srt} and {@code movie.es.srt}.
+     */
+    public void setLanguages(List<String> languages) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (String language : languages) {
+            ids.add(Languages.toSubLanguageId(language));
+        }
+        if (ids.isEmpty()) {
+            throw new IllegalArgumentException("No language given");
+        }
+        this.languages = new ArrayList<>(ids);
+    }
+
+    /**
+     * @return the languages to fetch, as {@code sublanguageid} codes
+     */
+    public List<String> getLanguages() {
+        return Collections.unmodifiableList(languages);
+    }
+
+    /**
+     * Sets the index that lets directory scans skip unchanged directories, or {@code null} to look
+     * at every file. It is not used when re-fetching is forced.
+     */
+    public void setScanIndex(ScanIndex scanIndex) {
+        this.scanIndex = scanIndex;
+    }
+
+    /**
+     * Sets the resolver that finds the IMDb id of a title so files the hash search misses are
+     * searched by {@code imdbid}, or {@code null} to search them by name only.
+     */
+    public void setIdentityResolver(IdentityResolver identityResolver) {
+        this.identityResolver = identityResolver;
+    }
+
+    /**
+     * @param stageListener told how long each hash, search and download batch took
+     */
+    public void setStageListener(Pipeline.StageListener stageListener) {
+        this.stageListener = stageListener;
+    }
+
+    /**
+     * @param priority the priority of the searches, by default {@code BULK} for a directory and
+     *                 {@code INTERACTIVE} for a single file
+     */
+    public void setPriority(RequestScheduler.Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Processes {@code root}, or the files below it when it is a directory. The directory tree is
+     * walked lazily while earlier files are still being hashed, searched and downloaded.
+     */
+    public void run(Path root, boolean recursive) throws IOException, InterruptedException {
+        Pipeline<Job> pipeline = newPipeline(priority != null ? priority
+                : Files.isDirectory(root) ? RequestScheduler.Priority.BULK : RequestScheduler.Priority.INTERACTIVE);
+        if (scanIndex != null && !force && Files.isDirectory(root)) {
+            Iterator<Path> files = scanIndex.walk(root, recursive, this::isVideoFile, this::hasSubtitles);
+            pipeline.run(new Iterator<Job>() {
+                @Override
+                public boolean hasNext() {
+                    return files.hasNext();
+                }
+
+                @Override
+                public Job next() {
+                    return prepare(files.next());
+                }
+            });
+            return;
+        }
+        try (Stream<Path> files = Files.find(root, recursive ? Integer.MAX_VALUE : 1,
+                (p, attributes) -> attributes.isRegularFile(), FileVisitOption.FOLLOW_LINKS)) {
+            Iterator<Job> jobs = files.map(this::prepare).iterator();
+            pipeline.run(jobs);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Processes the given files, such as new files reported by a {@link DirectoryWatcher}. The
+     * searches are {@code INTERACTIVE} unless another priority was set.
+     */
+    public void process(Collection<Path> files) throws InterruptedException {
+        Pipeline<Job> pipeline = newPipeline(priority != null ? priority : RequestScheduler.Priority.INTERACTIVE);
+        pipeline.run(files.stream().map(this::prepare).iterator());
+    }
+
+    /**
+     * Whether {@code path} has one of the video extensions this fetcher looks for.
+     */
+    boolean isVideoFile(Path path) {
+        String filename = path.getFileName().toString();
+        int indexOfExtension = filename.lastIndexOf('.');
+        return indexOfExtension > 0 && possibleExtensions.contains(filename.substring(indexOfExtension));
+    }
+
+    /**
+     * Whether the names of a directory include the subtitles of every language for the video
+     * {@code videoName}. The scan index adds the names of subtitles that recently had no match, so
+     * such a language counts as done until it is due to be searched again.
+     */
+    boolean hasSubtitles(String videoName, Set<String> names) {
+        int indexOfExtension = videoName.lastIndexOf('.');
+        if (indexOfExtension <= 0) {
+            return false;
+        }
+        for (String language : languages) {
+            if (!names.contains(subtitleName(videoName, videoName.substring(indexOfExtension), language))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the name of the video's subtitle in {@code language}, which only carries the language
+     * code when more than one language is fetched
+     */
+    String subtitleName(String filename, String extension, String language) {
+        String suffix = languages.size() > 1 ? "." + Languages.toFileCode(language) + ".srt" : ".srt";
+        return filename.replace(extension, suffix);
+    }
+
+    private Pipeline<Job> newPipeline(RequestScheduler.Priority searchPriority) {
+        Metrics metrics = openSubtitle.getMetrics();
+        SeasonPlanner seasonPlanner = new SeasonPlanner(openSubtitle);
+        return new Pipeline<Job>(queueCapacity)
+                .addStage("hash", hashThreads, batch -> {
+                    Job job = batch.get(0);
+                    hash(job);
+                    return job.skipped ? Collections.<Job>emptyList() : batch;
+                })
+                .addStage("hash search", searchThreads, openSubtitle.getMaxQueriesPerCall(), batch -> {
+                    RequestScheduler.setThreadPriority(searchPriority);
+                    searchByHash(batch);
+                    return batch;
+                })
+                .addStage("name search", searchThreads, batch -> {
+                    RequestScheduler.setThreadPriority(searchPriority);
+                    Job job = batch.get(0);
+                    searchByName(job, seasonPlanner);
+                    if (job.picks.isEmpty()) {
+                        metrics.increment("files.notFound");
+                        job.log("\tNot found");
+                        recordNoMatch(job);
+                        job.finish();
+                        return Collections.emptyList();
+                    }
+                    return batch;
+                })
+                .addStage("download", downloadThreads, batch -> {
+                    download(batch.get(0));
+                    metrics.increment("files.found");
+                    recordNoMatch(batch.get(0));
+                    if (scanIndex != null) {
+                        scanIndex.downloaded(batch.get(0).path);
+                    }
+                    batch.get(0).finish();
+                    return Collections.emptyList();
+                })
+                .onError((batch, e) -> batch.forEach(job -> {
+                    metrics.increment("files.failed");
+                    job.log("\tFailed: " + e);
+                    job.finish();
+                }))
+                .onBatchDone((stage, batchSize, nanos, failed) -> {
+                    metrics.record("stage." + stage.replace(' ', '-') + ".micros", TimeUnit.NANOSECONDS.toMicros(nanos));
+                    if (stageListener != null) {
+                        stageListener.batchDone(stage, batchSize, nanos, failed);
+                    }
+                });
+    }
+
+    /**
+     * Tells the scan index which languages of the job the search by name had nothing for.
+     */
+    private void recordNoMatch(Job job) {
+        // only an answered search means there is nothing to find
+        if (scanIndex == null || !job.searchedByName) {
+            return;
+        }
+        List<Path> notFound = job.targets.entrySet().stream()
+                .filter(target -> !job.picks.containsKey(target.getKey()))
+                .map(Map.Entry::getValue)
+                .collect(Collectors.toList());
+        if (!notFound.isEmpty()) {
+            scanIndex.noMatch(job.path, notFound);
+        }
+    }
+
+    /**
+     * Creates the job for a video file, or returns {@code null} when the file should be skipped.
+     */
+    Job prepare(Path p) {
+        String filename = p.getFileName().toString();
+        int indexOfExtension = filename.lastIndexOf('.');
+        if (indexOfExtension < 0) {
+            return null;
+        }
+        String extension = filename.substring(indexOfExtension);
+        if (skippableExtensions.contains(extension)) {
+            return null;
+        }
+        if (!possibleExtensions.contains(extension)) {
+            System.out.println("Unrecognized extension: " + extension);
+            return null;
+        }
+        Map<String, Path> targets = new LinkedHashMap<>();
+        for (String language : languages) {
+            targets.put(language, p.resolveSibling(subtitleName(filename, extension, language)));
+        }
+        return new Job(p, filename, extension, targets);
+    }
+
+    void hash(Job job) throws IOException {
+        if (!force) {
+            job.targets.values().removeIf(Files::exists);
+            if (job.targets.isEmpty()) {
+                System.out.println("Found existing subtitle. Skipping: " + job.path.toString());
+                openSubtitle.getMetrics().increment("files.skipped");
+                job.skipped = true;
+                return;
+            }
+        }
+        job.log("File - `" + job.filename + "`");
+        if (!disableHash) {
+            job.hash = openSubtitle.hash(job.path);
+        }
+    }
+
+    /**
+     * Looks up all hashed jobs of the batch with a single bulk search.
+     */
+    void searchByHash(List<Job> jobs) throws XmlRpcException {
+        List<Job> hashed = jobs.stream()
+                .filter(job -> job.hash != null)
+                .collect(Collectors.toList());
+        if (hashed.isEmpty()) {
+            return;
+        }
+        List<SearchRequest> requests = hashed.stream()
+                .map(job -> SearchRequest.byHash(job.hash, job.subLanguageIds()))
+                .collect(Collectors.toList());
+        List<SearchResponse> responses = openSubtitle.searchAll(requests);
+        for (int i = 0; i < hashed.size(); i++) {
+            Job job = hashed.get(i);
+            job.results = responses.get(i).getResults();
+            job.log("\t" + job.results.size() + " results from hash search. ");
+        }
+    }
+
+    /**
+     * Picks the best hash search result per language and falls back to a search by the name
+     * parsed from the file name for the languages it did not cover. When the title's IMDb id is
+     * known, that is searched for first. TV episodes are looked up in the results of a search for
+     * their whole season.
+     */
+    void searchByName(Job job, SeasonPlanner seasonPlanner) throws XmlRpcException {
+        job.results.forEach(i -> job.log("\t\t" + i.getMovieName()));
+        pick(job, job.results);
+        if (job.picks.size() == job.targets.size()) {
+            return;
+        }
+        ParsedName parsed = parseName(job);
+        boolean episode = !parsed.getSeason().isEmpty() && !parsed.getEpisode().isEmpty();
+        String imdbId = identityResolver != null ? identityResolver.resolve(parsed.getQuery(), episode) : null;
+        if (imdbId != null) {
+            job.log("\tIMDb: tt" + imdbId);
+        }
+        if (episode) {
+            List<CompactSubtitleInfo> results = imdbId != null
+                    ? seasonPlanner.episodeByImdbId(imdbId, parsed.getSeason(), parsed.getEpisode(), job.subLanguageIds())
+                    : seasonPlanner.episode(parsed.getQuery(), parsed.getSeason(), parsed.getEpisode(), job.subLanguageIds());
+            job.log("\t\t" + results.size() + " results from season search. ");
+            pick(job, results);
+        } else if (imdbId != null) {
+            List<CompactSubtitleInfo> results = openSubtitle.search(SearchRequest.byImdbId(imdbId, job.subLanguageIds())
+                    .withLimit(10 * (job.targets.size() - job.picks.size()))).getResults();
+            job.log("\t\t" + results.size() + " results from IMDb search. ");
+            pick(job, results);
+        }
+        if (job.picks.size() < job.targets.size()) {
+            job.log("\tQuerying: `" + parsed.getQuery() + "` S" + parsed.getSeason() + "E" + parsed.getEpisode());
+            List<CompactSubtitleInfo> results = openSubtitle.search(SearchRequest.byEpisode(
+                    parsed.getQuery(),
+                    parsed.getSeason(),
+                    parsed.getEpisode(),
+                    job.subLanguageIds()).withLimit(10 * (job.targets.size() - job.picks.size()))).getResults();
+            job.searchedByName = true;
+            job.log("\t\t" + results.size() + " results from search. ");
+            results.forEach(i -> job.log("\t\t" + i.getMovieName()));
+            pick(job, results);
+        }
+    }
+
+    /**
+     * Takes the first result, in the server's ranking, of every language that has no pick yet.
+     */
+    private static void pick(Job job, List<CompactSubtitleInfo> results) {
+        for (CompactSubtitleInfo result : results) {
+            String language = result.getSubLanguageID();
+            if (language != null && job.targets.containsKey(language) && !job.picks.containsKey(language)) {
+                job.picks.put(language, result);
+            }
+        }
+    }
+
+    void download(Job job) throws IOException {
+        for (Map.Entry<String, CompactSubtitleInfo> pick : job.picks.entrySet()) {
+            openSubtitle.download(pick.getValue(), job.targets.get(pick.getKey()));
+            job.log("\tDownloading " + pick.getKey() + "... DONE");
+        }
+    }
+
+    private ParsedName parseName(Job job) {
+        // start with Folder and Filename
+        String name = job.filename.replace(job.extension, "");
+        if (useParentFolderName) {
+            name = job.path.getParent().getFileName() + " " + name;
+        }
+        if (seriesName != null && seriesName.trim().length() > 0) {
+            name = seriesName.trim();
+        }
+        return filenameParser.parse(name, job.filename);
+    }
+
+    /**
+     * State of one video file as it moves through the stages. Output is collected per job and
+     * printed in one piece so concurrent jobs do not interleave.
+     */
+    static class Job {
+        final Path path;
+        final String filename;
+        final String extension;
+        /**
+         * The subtitle file per language that is still to be fetched.
+         */
+        final Map<String, Path> targets;
+        final List<String> output = new ArrayList<>();
+        boolean skipped;
+        String hash;
+        List<CompactSubtitleInfo> results = Collections.emptyList();
+        final Map<String, CompactSubtitleInfo> picks = new LinkedHashMap<>();
+        /**
+         * Whether the search by name was answered with {@code 200 OK}, so an empty result means
+         * the server has no subtitle rather than that it could not be asked.
+         */
+        boolean searchedByName;
+
+        Job(Path path, String filename, String extension, Map<String, Path> targets) {
+            this.path = path;
+            this.filename = filename;
+            this.extension = extension;
+            this.targets = targets;
+        }
+
+        /**
+         * @return the languages without a pick yet, as a {@code sublanguageid} list
+         */
+        String subLanguageIds() {
+            return targets.keySet().stream()
+                    .filter(language -> !picks.containsKey(language))
+                    .collect(Collectors.joining(","));
+        }
+
+        void log(String line) {
+            output.add(line);
+        }
+
+        void finish() {
+            if (output.isEmpty()) {
+                return;
+            }
+            synchronized (System.out) {
+                output.forEach(System.out::println);
+                System.out.println();
+            }
+        }
+    }
+}
@@ -16,17 +16,34 @@
 
 package Opensubs;
 
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * Created by sachin on 3/4/16.
  */
-public class SubtitleInfo {
+public class SubtitleInfo implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The API names of the fields read from a SearchSubtitles result.
+     */
+    static final List<String> FIELD_NAMES = Collections.unmodifiableList(Arrays.asList(
+            "IDSubMovieFile", "MovieHash", "MovieByteSize", "MovieTimeMS", "MovieFrames",
+            "IDSubtitleFile", "SubFileName", "SubActualCD", "SubSize", "SubHash", "IDSubtitle",
+            "UserID", "SubLanguageID", "SubFormat", "SubSumCD", "SubAddDate", "SubDownloadsCnt",
+            "SubBad", "SubRating", "IDMovie", "IDMovieImdb", "MovieName", "MovieNameEng",
+            "MovieYear", "MovieImdbRating", "UserNickName", "ISO639", "LanguageName",
+            "SubDownloadLink", "SeriesSeason", "SeriesEpisode"));
 
     String IDSubMovieFile;
     String MovieHash, MovieByteSize, MovieTimeMS, MovieFrames, IDSubtitleFile, SubFileName, SubActualCD, SubSize, SubHash;
     String IDSubtitle, UserID, SubLanguageID, SubFormat, SubSumCD, SubAddDate, SubDownloadsCnt, SubBad, SubRating;
     String IDMovie, IDMovieImdb, MovieName, MovieNameEng, MovieYear, MovieImdbRating, UserNickName, ISO639, LanguageName, SubDownloadLink;
+    String SeriesSeason, SeriesEpisode;
 
     SubtitleInfo(HashMap<?, ?> info) {
         IDSubMovieFile = (String) info.get("IDSubMovieFile");
@@ -58,7 +75,52 @@ public class SubtitleInfo {
         ISO639 = (String) info.get("ISO639");
         LanguageName = (String) info.get("LanguageName");
         SubDownloadLink = (String) info.get("SubDownloadLink");
-
+        SeriesSeason = (String) info.get("SeriesSeason");
+        SeriesEpisode = (String) info.get("SeriesEpisode");
+
+    }
+
+    SubtitleInfo() {
+    }
+
+    /**
+     * Returns the fields keyed by their API names. {@code MovieImdbRating} keeps the "tt" prefix
+     * added by the constructor.
+     */
+    HashMap<String, String> toMap() {
+        HashMap<String, String> map = new HashMap<>();
+        map.put("IDSubMovieFile", IDSubMovieFile);
+        map.put("MovieHash", MovieHash);
+        map.put("MovieByteSize", MovieByteSize);
+        map.put("MovieTimeMS", MovieTimeMS);
+        map.put("MovieFrames", MovieFrames);
+        map.put("IDSubtitleFile", IDSubtitleFile);
+        map.put("SubFileName", SubFileName);
+        map.put("SubActualCD", SubActualCD);
+        map.put("SubSize", SubSize);
+        map.put("SubHash", SubHash);
+        map.put("IDSubtitle", IDSubtitle);
+        map.put("UserID", UserID);
+        map.put("SubLanguageID", SubLanguageID);
+        map.put("SubFormat", SubFormat);
+        map.put("SubSumCD", SubSumCD);
+        map.put("SubAddDate", SubAddDate);
+        map.put("SubDownloadsCnt", SubDownloadsCnt);
+        map.put("SubBad", SubBad);
+        map.put("SubRating", SubRating);
+        map.put("IDMovie", IDMovie);
+        map.put("IDMovieImdb", IDMovieImdb);
+        map.put("MovieName", MovieName);
+        map.put("MovieNameEng", MovieNameEng);
+        map.put("MovieYear", MovieYear);
+        map.put("MovieImdbRating", MovieImdbRating);
+        map.put("UserNickName", UserNickName);
+        map.put("ISO639", ISO639);
+        map.put("LanguageName", LanguageName);
+        map.put("SubDownloadLink", SubDownloadLink);
+        map.put("SeriesSeason", SeriesSeason);
+        map.put("SeriesEpisode", SeriesEpisode);
+        return map;
     }
 
     public String getIDSubMovieFile() {
@@ -292,4 +354,20 @@ public class SubtitleInfo {
     public void setSubDownloadLink(String subDownloadLink) {
         SubDownloadLink = subDownloadLink;
     }
+
+    public String getSeriesSeason() {
+        return SeriesSeason;
+    }
+
+    public void setSeriesSeason(String seriesSeason) {
+        SeriesSeason = seriesSeason;
+    }
+
+    public String getSeriesEpisode() {
+        return SeriesEpisode;
+    }
+
+    public void setSeriesEpisode(String seriesEpisode) {
+        SeriesEpisode = seriesEpisode;
+    }
 }
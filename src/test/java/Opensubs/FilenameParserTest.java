@@ -0,0 +1,76 @@
+package Opensubs;
+
+import Opensubs.FilenameParser.ParsedName;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class FilenameParserTest {
+
+    private final FilenameParser parser = new FilenameParser();
+
+    @Test
+    public void parsesSeasonAndEpisode() {
+        ParsedName parsed = parser.parse("Better.Call.Saul.S02E09.720p.WEB-DL.x264-KILLERS.mkv");
+        // release tags such as WEB and DL are dropped, the group name is not known to be one
+        assertEquals(Arrays.asList("Better", "Call", "Saul", "KILLERS"), parsed.getTitleTokens());
+        assertEquals("02", parsed.getSeason());
+        assertEquals("09", parsed.getEpisode());
+        assertEquals("Better Call Saul KILLERS S02E09", parsed.toString());
+    }
+
+    @Test
+    public void parsesLowerCaseCrossMarker() {
+        ParsedName parsed = parser.parse("Arrested Development s2x22 480p.DVDScr.xvid-anoXmous.mkv");
+        assertEquals("Arrested Development", parsed.getQuery());
+        assertEquals("2", parsed.getSeason());
+        assertEquals("22", parsed.getEpisode());
+    }
+
+    @Test
+    public void bareCrossMarkerIsNotAnEpisode() {
+        // like the regex it replaced, a marker needs its leading `s`
+        ParsedName parsed = parser.parse("Arrested Development 2x22.mkv");
+        assertEquals("Arrested Development", parsed.getQuery());
+        assertEquals("", parsed.getSeason());
+        assertEquals("", parsed.getEpisode());
+    }
+
+    @Test
+    public void appendsPartInLowerCase() {
+        ParsedName parsed = parser.parse("Harry Potter and the Deathly Hallows Part 2 (2011) [1080p.WEB-DL] CD2.avi");
+        assertEquals("2", parsed.getPart());
+        assertEquals("Harry Potter and the Deathly Hallows Part CD part 2", parsed.getQuery());
+        assertEquals("Harry Potter and the Deathly Hallows Part CD part 2 SE", parsed.toString());
+    }
+
+    @Test
+    public void dropsYear() {
+        ParsedName parsed = parser.parse("Blade.Runner.2049.2017.1080p.BluRay.x264.mkv");
+        assertEquals(Arrays.asList("Blade", "Runner"), parsed.getTitleTokens());
+        assertEquals("", parsed.getSeason());
+        assertEquals("", parsed.getPart());
+        assertEquals("Blade Runner SE", parsed.toString());
+    }
+
+    @Test
+    public void nameWithoutTitleOrMarkers() {
+        ParsedName parsed = parser.parse("2021-05-01 12.30.mp4");
+        assertEquals(Collections.emptyList(), parsed.getTitleTokens());
+        assertEquals("", parsed.getQuery());
+        assertEquals("", parsed.getSeason());
+        assertEquals("", parsed.getEpisode());
+        assertEquals("", parsed.getPart());
+    }
+
+    @Test
+    public void takesTitleFromGivenNameAndMarkersFromFilename() {
+        ParsedName parsed = parser.parse("The Wire", "tw.s03e07.mkv");
+        assertEquals("The Wire", parsed.getQuery());
+        assertEquals("03", parsed.getSeason());
+        assertEquals("07", parsed.getEpisode());
+    }
+}
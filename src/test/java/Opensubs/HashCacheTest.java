@@ -0,0 +1,85 @@
+package Opensubs;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HashCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reusesHashOfUnchangedFile() throws Exception {
+        Path store = folder.getRoot().toPath().resolve("hashes");
+        File video = video("a.mkv");
+        HashCache first = HashCache.load(store);
+        String hash = first.computeHash(video);
+        first.save();
+
+        HashCache cache = HashCache.load(store);
+        assertEquals(hash, cache.computeHash(video));
+        assertEquals(1, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void doesNotWriteWhenNothingWasHashed() throws Exception {
+        Path store = folder.getRoot().toPath().resolve("hashes");
+        HashCache cache = HashCache.load(store);
+        cache.computeHash(video("a.mkv"));
+        cache.save();
+        long modified = Files.getLastModifiedTime(store).toMillis();
+        Files.setLastModifiedTime(store, FileTime.fromMillis(modified - 10000));
+
+        HashCache unchanged = HashCache.load(store);
+        unchanged.computeHash(video("a.mkv"));
+        unchanged.save();
+
+        assertEquals(modified - 10000, Files.getLastModifiedTime(store).toMillis());
+    }
+
+    @Test
+    public void evictsDeletedFilesAtMostOnceAWeek() throws Exception {
+        Path store = folder.getRoot().toPath().resolve("hashes");
+        File deleted = video("deleted.mkv");
+        HashCache cache = HashCache.load(store);
+        cache.computeHash(deleted);
+        cache.save();
+        assertTrue(deleted.delete());
+
+        // evicted a moment ago, so the entry of the deleted file is kept
+        HashCache next = HashCache.load(store);
+        next.computeHash(video("b.mkv"));
+        next.save();
+        assertEquals(2, HashCache.load(store).size());
+
+        List<String> lines = Files.readAllLines(store, StandardCharsets.UTF_8);
+        lines.set(0, "#evicted\t0");
+        Files.write(store, lines, StandardCharsets.UTF_8);
+        HashCache due = HashCache.load(store);
+        due.save();
+        assertEquals(1, HashCache.load(store).size());
+    }
+
+    private File video(String name) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        if (!file.exists()) {
+            byte[] data = new byte[200 * 1024];
+            new Random(name.hashCode()).nextBytes(data);
+            Files.write(file.toPath(), data);
+        }
+        return file;
+    }
+}
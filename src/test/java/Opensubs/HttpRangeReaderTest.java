@@ -0,0 +1,129 @@
+package Opensubs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpRangeReaderTest {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger heads = new AtomicInteger();
+    private byte[] video;
+    private Path file;
+    private HttpServer server;
+    private volatile boolean ignoreRange;
+
+    @Before
+    public void startServer() throws Exception {
+        video = new byte[300 * 1024];
+        new Random(7).nextBytes(video);
+        file = folder.getRoot().toPath().resolve("video.mkv");
+        Files.write(file, video);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/video.mkv", this::serve);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void takesSizeFromHead() throws Exception {
+        try (HttpRangeReader reader = new HttpRangeReader(url())) {
+            assertEquals(video.length, reader.size());
+            assertEquals(video.length, reader.size());
+        }
+        assertEquals(1, heads.get());
+    }
+
+    @Test
+    public void readsRequestedRange() throws Exception {
+        try (HttpRangeReader reader = new HttpRangeReader(url())) {
+            ByteBuffer buffer = ByteBuffer.allocate(1000);
+            assertEquals(1000, reader.read(buffer, 5000));
+            assertArrayEquals(Arrays.copyOfRange(video, 5000, 6000), buffer.array());
+
+            ByteBuffer tail = ByteBuffer.allocate(1000);
+            assertEquals(400, reader.read(tail, video.length - 400));
+            assertEquals(-1, reader.read(ByteBuffer.allocate(10), video.length));
+        }
+    }
+
+    @Test
+    public void rejectsWholeFileAnswer() throws Exception {
+        ignoreRange = true;
+        try (HttpRangeReader reader = new HttpRangeReader(url())) {
+            reader.read(ByteBuffer.allocate(1000), 5000);
+            fail("expected the read to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("status 200"));
+        }
+    }
+
+    @Test
+    public void hashesLikeLocalFile() throws Exception {
+        try (HttpRangeReader reader = new HttpRangeReader(url())) {
+            assertEquals(OpenSubtitleHasher.computeHash(file.toFile()), OpenSubtitleHasher.toHex(OpenSubtitleHasher.hash(reader)));
+        }
+    }
+
+    private URL url() throws Exception {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/video.mkv");
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                heads.incrementAndGet();
+                exchange.getResponseHeaders().set("Content-Length", Integer.toString(video.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            Matcher matcher = range != null ? RANGE.matcher(range) : null;
+            if (ignoreRange || matcher == null || !matcher.matches()) {
+                exchange.sendResponseHeaders(200, video.length);
+                exchange.getResponseBody().write(video);
+                return;
+            }
+            int start = Integer.parseInt(matcher.group(1));
+            int end = Math.min(Integer.parseInt(matcher.group(2)), video.length - 1);
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + video.length);
+            exchange.sendResponseHeaders(206, end - start + 1);
+            exchange.getResponseBody().write(video, start, end - start + 1);
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package Opensubs;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class IdentityResolverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> lookups = new ArrayList<>();
+    private final Map<String, String> imdbTitles = new LinkedHashMap<>();
+    private XmlRpcException failure;
+
+    private final OpenSubtitle openSubtitle = new OpenSubtitle() {
+        @Override
+        public Map<String, String> findImdbIds(String title) throws XmlRpcException {
+            lookups.add(title);
+            if (failure != null) {
+                throw failure;
+            }
+            return imdbTitles;
+        }
+    };
+
+    @After
+    public void close() {
+        openSubtitle.close();
+    }
+
+    @Test
+    public void matchesTitleIgnoringCasePunctuationAndYear() {
+        imdbTitles.put("1375666", "Inception (2010)");
+        IdentityResolver resolver = new IdentityResolver(openSubtitle);
+
+        assertEquals("1375666", resolver.resolve("INCEPTION!", false));
+        assertEquals("1375666", resolver.resolve("Inception 2010", false));
+        assertNull(resolver.resolve("Inception 2", false));
+    }
+
+    @Test
+    public void prefersSeriesForTvShows() {
+        imdbTitles.put("1", "The Office (2001)");
+        imdbTitles.put("386676", "\"The Office\" (2005)");
+        IdentityResolver resolver = new IdentityResolver(openSubtitle);
+
+        assertEquals("1", resolver.resolve("The.Office", false));
+        assertEquals("386676", resolver.resolve("The.Office", true));
+    }
+
+    @Test
+    public void looksUpEachTitleOnce() {
+        imdbTitles.put("1375666", "Inception (2010)");
+        IdentityResolver resolver = new IdentityResolver(openSubtitle);
+        resolver.resolve("Inception", false);
+        resolver.resolve("inception", false);
+        resolver.resolve("Unknown Movie", false);
+        resolver.resolve("unknown movie", false);
+
+        assertEquals(Arrays.asList("Inception", "Unknown Movie"), lookups);
+    }
+
+    @Test
+    public void retriesAfterFailedLookup() {
+        failure = new XmlRpcException("SearchMoviesOnIMDB failed: 503 Service Unavailable");
+        IdentityResolver resolver = new IdentityResolver(openSubtitle);
+        assertNull(resolver.resolve("Inception", false));
+
+        failure = null;
+        imdbTitles.put("1375666", "Inception (2010)");
+        assertEquals("1375666", resolver.resolve("Inception", false));
+        assertEquals(2, lookups.size());
+    }
+
+    @Test
+    public void retriesUnknownTitleAfterAWeek() throws Exception {
+        Path store = folder.getRoot().toPath().resolve("imdb-ids");
+        IdentityResolver resolver = IdentityResolver.load(openSubtitle, store);
+        assertNull(resolver.resolve("Home Video", false));
+        resolver.save();
+
+        assertNull(IdentityResolver.load(openSubtitle, store).resolve("Home Video", false));
+        assertEquals(1, lookups.size());
+
+        long eightDaysAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(8);
+        List<String> lines = Files.readAllLines(store, StandardCharsets.UTF_8);
+        lines.set(0, eightDaysAgo + lines.get(0).substring(lines.get(0).indexOf('\t')));
+        Files.write(store, lines, StandardCharsets.UTF_8);
+
+        imdbTitles.put("42", "Home Video (1999)");
+        assertEquals("42", IdentityResolver.load(openSubtitle, store).resolve("Home Video", false));
+        assertEquals(2, lookups.size());
+    }
+
+    @Test
+    public void skipsTitleWithoutWords() {
+        IdentityResolver resolver = new IdentityResolver(openSubtitle);
+        assertNull(resolver.resolve(" - ", false));
+        assertEquals(Collections.emptyList(), lookups);
+    }
+}
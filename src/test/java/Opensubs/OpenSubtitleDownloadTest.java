@@ -0,0 +1,167 @@
+package Opensubs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class OpenSubtitleDownloadTest {
+
+    private static final byte[] SUBTITLE = "1\n00:00:01,000 --> 00:00:02,000\nHello\n".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger fetches = new AtomicInteger();
+    private HttpServer server;
+    private OpenSubtitle openSubtitle;
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            fetches.incrementAndGet();
+            try {
+                // keep the first download in the air while the others arrive
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, SUBTITLE.length);
+            exchange.getResponseBody().write(SUBTITLE);
+            exchange.close();
+        });
+        server.createContext("/plain", exchange -> send(exchange, SUBTITLE));
+        server.createContext("/gzip", exchange -> send(exchange, gzip(SUBTITLE)));
+        server.createContext("/broken", exchange -> {
+            // the connection ends after a tenth of the announced body
+            exchange.sendResponseHeaders(200, SUBTITLE.length * 10L);
+            exchange.getResponseBody().write(SUBTITLE);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        openSubtitle = new OpenSubtitle();
+    }
+
+    @After
+    public void stopServer() {
+        openSubtitle.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void downloadsPlainBody() throws Exception {
+        Path target = folder.getRoot().toPath().resolve("video.srt");
+        openSubtitle.downloadSubtitle(url("/plain"), target.toString());
+        assertArrayEquals(SUBTITLE, Files.readAllBytes(target));
+    }
+
+    @Test
+    public void unpacksGzipBody() throws Exception {
+        Path target = folder.getRoot().toPath().resolve("video.srt");
+        openSubtitle.downloadSubtitle(url("/gzip"), target.toString());
+        assertArrayEquals(SUBTITLE, Files.readAllBytes(target));
+    }
+
+    @Test
+    public void failedTransferLeavesNoFile() throws Exception {
+        ClientSettings settings = new ClientSettings();
+        settings.setMaxRetries(0);
+        OpenSubtitle client = new OpenSubtitle(settings);
+        Path target = folder.getRoot().toPath().resolve("video.srt");
+        try {
+            client.downloadSubtitle(url("/broken"), target.toString());
+            fail("expected the download to fail");
+        } catch (IOException e) {
+            // the body was cut short
+        } finally {
+            client.close();
+        }
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            assertEquals(Collections.emptyList(), files.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void concurrentDownloadsOfOneSubtitleFetchItOnce() throws Exception {
+        Map<String, String> row = new HashMap<>();
+        row.put("IDSubtitleFile", "1951976245");
+        row.put("SubDownloadLink", url("/1951976245").toString());
+        CompactSubtitleInfo subtitle = CompactSubtitleInfo.from(row);
+
+        int callers = 4;
+        ExecutorService threads = Executors.newFixedThreadPool(callers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> downloads = new ArrayList<>();
+        List<Path> targets = new ArrayList<>();
+        try {
+            for (int i = 0; i < callers; i++) {
+                Path target = folder.getRoot().toPath().resolve("video" + i + ".srt");
+                targets.add(target);
+                downloads.add(threads.submit(() -> {
+                    start.await();
+                    openSubtitle.download(subtitle, target);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> download : downloads) {
+                download.get();
+            }
+        } finally {
+            threads.shutdown();
+        }
+
+        assertEquals(1, fetches.get());
+        for (Path target : targets) {
+            assertArrayEquals(SUBTITLE, Files.readAllBytes(target));
+        }
+    }
+
+    private URL url(String path) throws Exception {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private static void send(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,150 @@
+package Opensubs;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScanIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger videoChecks = new AtomicInteger();
+    private final Predicate<Path> isVideo = path -> {
+        videoChecks.incrementAndGet();
+        return path.getFileName().toString().endsWith(".mkv");
+    };
+    private final BiPredicate<String, Set<String>> hasSubtitle =
+            (name, names) -> names.contains(name.substring(0, name.lastIndexOf('.')) + ".srt");
+
+    private Path root;
+    private Path store;
+
+    @Before
+    public void createTree() throws Exception {
+        root = folder.newFolder("videos").toPath();
+        store = folder.getRoot().toPath().resolve("scan-index");
+        Files.createFile(root.resolve("a.mkv"));
+        Files.createFile(root.resolve("a.srt"));
+        Files.createFile(root.resolve("b.mkv"));
+    }
+
+    @Test
+    public void skipsDirectoryWithUnchangedModificationTime() throws Exception {
+        ScanIndex index = ScanIndex.load(store);
+        assertEquals(Collections.singletonList("b.mkv"), walk(index));
+        index.noMatch(root.resolve("b.mkv"), Collections.singleton(root.resolve("b.srt")));
+        index.save();
+
+        ScanIndex next = ScanIndex.load(store);
+        videoChecks.set(0);
+        assertEquals(Collections.emptyList(), walk(next));
+        assertEquals(1, next.getDirectoriesSkipped());
+        assertEquals(0, next.getDirectoriesListed());
+        assertEquals(0, videoChecks.get());
+    }
+
+    @Test
+    public void touchedDirectoryWithSameNamesIsNotCheckedAgain() throws Exception {
+        ScanIndex index = ScanIndex.load(store);
+        walk(index);
+        index.noMatch(root.resolve("b.mkv"), Collections.singleton(root.resolve("b.srt")));
+        index.save();
+        touch(root);
+
+        ScanIndex next = ScanIndex.load(store);
+        videoChecks.set(0);
+        assertEquals(Collections.emptyList(), walk(next));
+        assertEquals(1, next.getDirectoriesListed());
+        assertEquals(0, videoChecks.get());
+    }
+
+    @Test
+    public void listsDirectoryWithNewFile() throws Exception {
+        ScanIndex index = ScanIndex.load(store);
+        walk(index);
+        index.noMatch(root.resolve("b.mkv"), Collections.singleton(root.resolve("b.srt")));
+        index.save();
+        Files.createFile(root.resolve("c.mkv"));
+        touch(root);
+
+        assertEquals(Collections.singletonList("c.mkv"), walk(ScanIndex.load(store)));
+    }
+
+    @Test
+    public void triesNoMatchAgainAfterAWeek() throws Exception {
+        ScanIndex index = ScanIndex.load(store);
+        walk(index);
+        index.noMatch(root.resolve("b.mkv"), Collections.singleton(root.resolve("b.srt")));
+        index.save();
+
+        long eightDaysAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(8);
+        List<String> lines = Files.readAllLines(store, StandardCharsets.UTF_8).stream()
+                .map(line -> line.startsWith("N\t") ? "N\t" + eightDaysAgo + "\tb.srt" : line)
+                .collect(Collectors.toList());
+        Files.write(store, lines, StandardCharsets.UTF_8);
+
+        assertEquals(Collections.singletonList("b.mkv"), walk(ScanIndex.load(store)));
+    }
+
+    @Test
+    public void languageWithoutMatchCountsAsDone() throws Exception {
+        Path show = Files.createDirectory(root.resolve("show"));
+        Files.createFile(show.resolve("c.mkv"));
+        BiPredicate<String, Set<String>> hasBothLanguages = (name, names) -> {
+            String base = name.substring(0, name.lastIndexOf('.'));
+            return names.contains(base + ".en.srt") && names.contains(base + ".es.srt");
+        };
+        ScanIndex index = ScanIndex.load(store);
+        assertEquals(Collections.singletonList("c.mkv"), walk(index, show, hasBothLanguages));
+
+        // English was found, Spanish was not
+        Files.createFile(show.resolve("c.en.srt"));
+        index.noMatch(show.resolve("c.mkv"), Collections.singleton(show.resolve("c.es.srt")));
+        index.downloaded(show.resolve("c.mkv"));
+        index.save();
+
+        ScanIndex next = ScanIndex.load(store);
+        assertEquals(Collections.emptyList(), walk(next, show, hasBothLanguages));
+        assertEquals(1, next.getDirectoriesSkipped());
+    }
+
+    private List<String> walk(ScanIndex index) {
+        return walk(index, root, hasSubtitle);
+    }
+
+    private List<String> walk(ScanIndex index, Path dir, BiPredicate<String, Set<String>> hasSubtitle) {
+        List<String> names = new ArrayList<>();
+        Iterator<Path> videos = index.walk(dir, true, isVideo, hasSubtitle);
+        while (videos.hasNext()) {
+            names.add(videos.next().getFileName().toString());
+        }
+        return names;
+    }
+
+    /**
+     * Moves the modification time so that it differs even on coarse file system clocks.
+     */
+    private static void touch(Path dir) throws Exception {
+        long modified = Files.getLastModifiedTime(dir).toMillis();
+        Files.setLastModifiedTime(dir, FileTime.fromMillis(modified + 2000));
+    }
+}
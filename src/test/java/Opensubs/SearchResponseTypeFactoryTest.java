@@ -0,0 +1,119 @@
+package Opensubs;
+
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
+import org.apache.xmlrpc.common.TypeFactory;
+import org.apache.xmlrpc.common.TypeFactoryImpl;
+import org.apache.xmlrpc.parser.XmlRpcResponseParser;
+import org.apache.xmlrpc.util.SAXParsers;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SearchResponseTypeFactoryTest {
+
+    private static final String[][] RESULTS = {
+            {"MatchedBy", "moviehash", "IDSubtitleFile", "1951976245", "MovieHash", "8e245d9679d31e12",
+                    "SubFileName", "Movie.2016.srt", "SubLanguageID", "eng", "SubDownloadsCnt", "1200",
+                    "SubRating", "8.5", "IDMovieImdb", "133093", "MovieName", "The Movie", "SeriesSeason", "0",
+                    "SubDownloadLink", "http://dl.opensubtitles.org/en/download/src-api/vrf-1/filead/1951976245.gz"},
+            {"MatchedBy", "fulltext", "IDSubtitleFile", "1952000001", "SubFileName", "Show.S02E03.srt",
+                    "SubLanguageID", "spa", "SubEncoding", "UTF-8", "SeriesSeason", "2", "SeriesEpisode", "3",
+                    "MovieName", "\"Show\" Episode", "UserRank", ""}
+    };
+
+    @Test
+    public void parsesCompactResponse() throws Exception {
+        assertParsesLikeStockFactory(response(false));
+    }
+
+    @Test
+    public void parsesIndentedResponse() throws Exception {
+        assertParsesLikeStockFactory(response(true));
+    }
+
+    @Test
+    public void keepsFaultOfFailedCall() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><methodResponse><fault><value><struct>"
+                + member("faultCode", "<int>4</int>")
+                + member("faultString", "<string>Too many parameters</string>")
+                + "</struct></value></fault></methodResponse>";
+        XmlRpcClient client = new XmlRpcClient();
+        XmlRpcResponseParser expected = parser(xml, new TypeFactoryImpl(client));
+        XmlRpcResponseParser actual = parser(xml, new SearchResponseTypeFactory(client));
+
+        assertFalse(actual.isSuccess());
+        assertEquals(4, actual.getErrorCode());
+        assertEquals("Too many parameters", actual.getErrorMessage());
+        assertEquals(expected.getErrorCode(), actual.getErrorCode());
+        assertEquals(expected.getErrorMessage(), actual.getErrorMessage());
+    }
+
+    private static void assertParsesLikeStockFactory(String xml) throws Exception {
+        XmlRpcClient client = new XmlRpcClient();
+        Map<?, ?> expected = (Map<?, ?>) parse(xml, new TypeFactoryImpl(client));
+        Map<?, ?> actual = (Map<?, ?>) parse(xml, new SearchResponseTypeFactory(client));
+
+        assertEquals(expected.get("status"), actual.get("status"));
+        assertEquals(expected.get("seconds"), actual.get("seconds"));
+        Object[] expectedData = (Object[]) expected.get("data");
+        Object[] actualData = (Object[]) actual.get("data");
+        assertEquals(RESULTS.length, actualData.length);
+        for (int i = 0; i < expectedData.length; i++) {
+            assertTrue(actualData[i] instanceof CompactSubtitleInfo);
+            assertEquals(CompactSubtitleInfo.from((Map<?, ?>) expectedData[i]).toSubtitleInfo().toMap(),
+                    ((CompactSubtitleInfo) actualData[i]).toSubtitleInfo().toMap());
+        }
+    }
+
+    private static Object parse(String xml, TypeFactory typeFactory) throws Exception {
+        XmlRpcResponseParser parser = parser(xml, typeFactory);
+        assertTrue(parser.isSuccess());
+        return parser.getResult();
+    }
+
+    private static XmlRpcResponseParser parser(String xml, TypeFactory typeFactory) throws Exception {
+        XmlRpcResponseParser parser = new XmlRpcResponseParser(new XmlRpcClientConfigImpl(), typeFactory);
+        XMLReader reader = SAXParsers.newXMLReader();
+        reader.setContentHandler(parser);
+        reader.parse(new InputSource(new StringReader(xml)));
+        return parser;
+    }
+
+    /**
+     * A SearchSubtitles response, with every element on its own line when {@code indented}.
+     */
+    private static String response(boolean indented) {
+        List<String> results = new ArrayList<>();
+        for (String[] result : RESULTS) {
+            List<String> members = new ArrayList<>();
+            for (int i = 0; i < result.length; i += 2) {
+                members.add(member(result[i], "<string>" + result[i + 1].replace("\"", "&quot;") + "</string>"));
+            }
+            members.add(member("QueryParameters", "<struct>" + member("moviehash", "<string>8e245d9679d31e12</string>")
+                    + member("sublanguageid", "<string>eng</string>") + "</struct>"));
+            members.add(member("Score", "<double>12.5</double>"));
+            members.add(member("SubHearingImpaired", "<int>0</int>"));
+            results.add("<value><struct>" + String.join("", members) + "</struct></value>");
+        }
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><methodResponse><params><param><value><struct>"
+                + member("status", "<string>200 OK</string>")
+                + member("data", "<array><data>" + String.join("", results) + "</data></array>")
+                + member("seconds", "<double>0.031</double>")
+                + "</struct></value></param></params></methodResponse>";
+        return indented ? xml.replace("><", ">\n    <") : xml;
+    }
+
+    private static String member(String name, String value) {
+        return "<member><name>" + name + "</name><value>" + value + "</value></member>";
+    }
+}
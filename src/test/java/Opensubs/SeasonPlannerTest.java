@@ -0,0 +1,98 @@
+package Opensubs;
+
+import org.apache.xmlrpc.XmlRpcException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class SeasonPlannerTest {
+
+    private final List<SearchRequest> requests = new ArrayList<>();
+    private List<CompactSubtitleInfo> seasonResults = Arrays.asList(
+            result("1", "2", "1", "Show.S02E01.srt"),
+            result("2", "2", "2", "Show.S02E01.srt"),
+            // no season and episode numbers, so the file name decides
+            result("3", "0", "0", "show.s02e02.720p.srt"),
+            result("4", "0", "0", "Show.Extras.srt"));
+    private XmlRpcException failure;
+
+    private final OpenSubtitle openSubtitle = new OpenSubtitle() {
+        @Override
+        public SearchResponse search(SearchRequest request) throws XmlRpcException {
+            synchronized (requests) {
+                requests.add(request);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return new SearchResponse(request, seasonResults, false);
+        }
+    };
+
+    @After
+    public void close() {
+        openSubtitle.close();
+    }
+
+    @Test
+    public void matchesEpisodeByNumbersOrFileName() {
+        SeasonPlanner planner = new SeasonPlanner(openSubtitle);
+        assertEquals(Arrays.asList("1"), ids(planner.episode("Show", "2", "1", "eng")));
+        assertEquals(Arrays.asList("2", "3"), ids(planner.episode("Show", "02", "02", "eng")));
+        assertEquals(Collections.emptyList(), ids(planner.episode("Show", "2", "3", "eng")));
+    }
+
+    @Test
+    public void searchesEachSeasonOnce() {
+        SeasonPlanner planner = new SeasonPlanner(openSubtitle);
+        planner.episode("Show", "2", "1", "eng");
+        planner.episode("Show", "02", "2", "eng");
+        planner.episode("Show", "3", "1", "eng");
+        planner.episode("Other", "2", "1", "eng");
+
+        assertEquals(Arrays.asList(SearchRequest.bySeason("Show", "2", "eng"), SearchRequest.bySeason("Show", "3", "eng"),
+                SearchRequest.bySeason("Other", "2", "eng")), requests);
+        assertEquals(3, planner.getSeasonSearches());
+    }
+
+    @Test
+    public void failedSeasonSearchFindsNothing() {
+        failure = new XmlRpcException("SearchSubtitles failed: 503 Service Unavailable");
+        SeasonPlanner planner = new SeasonPlanner(openSubtitle);
+
+        assertEquals(Collections.emptyList(), planner.episode("Show", "2", "1", "eng"));
+        // the empty answer is kept, so the episodes are searched one by one rather than the season again
+        assertEquals(Collections.emptyList(), planner.episode("Show", "2", "2", "eng"));
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void ignoresNamesWithoutEpisode() {
+        SeasonPlanner planner = new SeasonPlanner(openSubtitle);
+        assertEquals(Collections.emptyList(), planner.episode("Show", "", "", "eng"));
+        assertEquals(0, requests.size());
+    }
+
+    private static CompactSubtitleInfo result(String id, String season, String episode, String subFileName) {
+        Map<String, String> row = new HashMap<>();
+        row.put("IDSubtitleFile", id);
+        row.put("SeriesSeason", season);
+        row.put("SeriesEpisode", episode);
+        row.put("SubFileName", subFileName);
+        row.put("SubLanguageID", "eng");
+        return CompactSubtitleInfo.from(row);
+    }
+
+    private static List<String> ids(List<CompactSubtitleInfo> results) {
+        return results.stream().map(result -> Long.toString(result.getIDSubtitleFile())).collect(Collectors.toList());
+    }
+}
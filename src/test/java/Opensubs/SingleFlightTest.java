@@ -0,0 +1,115 @@
+package Opensubs;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    private static final int CALLERS = 4;
+
+    @Test
+    public void concurrentCallersShareOneCall() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = runConcurrently(flights, () -> {
+            calls.incrementAndGet();
+            release.await();
+            return "result";
+        }, release);
+
+        for (Future<String> result : results) {
+            assertEquals("result", result.get());
+        }
+        assertEquals(1, calls.get());
+        assertEquals(CALLERS - 1, flights.getJoined());
+    }
+
+    @Test
+    public void followersGetTheLeadersException() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        IOException failure = new IOException("server down");
+
+        List<Future<String>> results = runConcurrently(flights, () -> {
+            calls.incrementAndGet();
+            release.await();
+            throw failure;
+        }, release);
+
+        for (Future<String> result : results) {
+            try {
+                result.get();
+                fail("expected the call's exception");
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void landedFlightIsNotReused() throws Exception {
+        SingleFlight<String, Integer> flights = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        try {
+            flights.execute("key", IOException.class, () -> {
+                calls.incrementAndGet();
+                throw new IOException("first attempt");
+            });
+            fail("expected the call's exception");
+        } catch (IOException e) {
+            // the next call starts a flight of its own
+        }
+        assertEquals(Integer.valueOf(2), flights.execute("key", IOException.class, calls::incrementAndGet));
+        assertEquals(0, flights.getJoined());
+    }
+
+    /**
+     * Starts {@link #CALLERS} calls of {@code call} for one key, waits until all but the leader
+     * have joined its flight and then lets the leader finish.
+     */
+    private static List<Future<String>> runConcurrently(SingleFlight<String, String> flights,
+                                                        SingleFlight.Call<String, Exception> call,
+                                                        CountDownLatch release) throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                results.add(threads.submit(() -> flights.execute("key", Exception.class, call)));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (flights.getJoined() < CALLERS - 1 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(CALLERS - 1, flights.getJoined());
+            for (Future<String> result : results) {
+                assertFalse(result.isDone());
+            }
+            release.countDown();
+            return results;
+        } finally {
+            threads.shutdown();
+            assertTrue(threads.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+}